@@ -0,0 +1,373 @@
+package utilities;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+// Keeps WEB-INF/ProductCatalog.xml in step with product writes without making requests wait
+// for it. Servlets queue a mutation and return; one background thread takes everything queued,
+// applies it to a single parse of the file and writes the result to a temp file that is then
+// renamed over the catalog, so a burst of writes costs one rewrite and readers never see a
+// half-written file. MySQL is the source of truth: a mutation that fails is logged and the
+// file catches up with the next import. Started and stopped by DataStoreContextListener;
+// stopping writes out whatever is still queued.
+//
+// The writer thread keeps the parsed catalog between rewrites, indexed by ProductID and, for
+// entries written without one, by name, category and price, so finding a product never scans
+// the file. It is parsed again only when the file has been changed by something else.
+public class CatalogXmlWriter {
+    @FunctionalInterface
+    private interface Mutation {
+        void apply(CatalogModel model) throws Exception;
+    }
+
+    private static final Mutation STOP = model -> {};
+
+    // Child elements of a <Product>, in file order
+    private static final List<String> PRODUCT_ELEMENTS = Arrays.asList(
+            "ProductID", "ProductModelName", "ProductCategory", "ProductPrice", "ProductOnSale",
+            "ManufacturerName", "ManufacturerRebate", "Inventory", "ProductImage", "ProductDescription");
+
+    private static final BlockingQueue<Mutation> queue = new LinkedBlockingQueue<>();
+    private static final LongAdder queued = new LongAdder();
+    private static final LongAdder applied = new LongAdder();
+    private static final LongAdder failed = new LongAdder();
+    private static final LongAdder rewrites = new LongAdder();
+    private static final AtomicLong lastRewriteMillis = new AtomicLong();
+
+    private static volatile File catalogFile;
+    private static volatile Thread writer;
+
+    // Only touched by the writer thread
+    private static CatalogModel model;
+
+    public static synchronized void start(String xmlFilePath) {
+        if (writer != null || xmlFilePath == null) {
+            return;
+        }
+        catalogFile = new File(xmlFilePath);
+        writer = new Thread(CatalogXmlWriter::run, "catalog-xml-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public static synchronized void shutdown() {
+        Thread current = writer;
+        if (current == null) {
+            return;
+        }
+        queue.add(STOP);
+        try {
+            current.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer = null;
+    }
+
+    public static void append(Map<String, Object> product) {
+        Map<String, Object> values = new HashMap<>(product);
+        enqueue(model -> {
+            Map<String, String> elements = elementValues(values);
+            Element productElement = model.doc.createElement("Product");
+            updateProductElement(productElement, elements);
+            model.add(productElement);
+        });
+    }
+
+    // Updates the product's element where it is, or appends one when the file does not have it
+    // yet. before is the row as it was ahead of the update: entries written without a ProductID
+    // are matched on its name, category and price.
+    public static void update(int productId, Map<String, Object> before, Map<String, Object> product) {
+        Map<String, Object> previous = copyOf(before);
+        Map<String, Object> values = new HashMap<>(product);
+        values.put("ProductID", productId);
+        enqueue(model -> {
+            Map<String, String> elements = elementValues(values);
+            Element productElement = model.find(productId, previous);
+            if (productElement != null) {
+                // Its keys change with the edit, so it is re-indexed around it
+                model.unindex(productElement);
+                try {
+                    updateProductElement(productElement, elements);
+                } finally {
+                    model.index(productElement);
+                }
+            } else {
+                productElement = model.doc.createElement("Product");
+                updateProductElement(productElement, elements);
+                model.add(productElement);
+            }
+        });
+    }
+
+    // before is the row as it was ahead of the delete, matched the same way as in update.
+    public static void delete(int productId, Map<String, Object> before) {
+        Map<String, Object> previous = copyOf(before);
+        enqueue(model -> {
+            Element productElement = model.find(productId, previous);
+            if (productElement == null) {
+                throw new IllegalStateException("Product with ID " + productId + " not found in XML file");
+            }
+            model.remove(productElement);
+        });
+    }
+
+    public static Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("running", writer != null);
+        stats.put("pending", queue.size());
+        stats.put("queued", queued.sum());
+        stats.put("applied", applied.sum());
+        stats.put("failed", failed.sum());
+        stats.put("rewrites", rewrites.sum());
+        stats.put("lastRewriteMillis", lastRewriteMillis.get());
+        return stats;
+    }
+
+    private static void enqueue(Mutation mutation) {
+        if (writer == null) {
+            System.err.println("Catalog XML writer is not running; ProductCatalog.xml will not reflect this change");
+            return;
+        }
+        queued.increment();
+        queue.add(mutation);
+    }
+
+    private static void run() {
+        boolean stopping = false;
+        while (!stopping) {
+            List<Mutation> batch = new ArrayList<>();
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                stopping = true;
+            }
+            queue.drainTo(batch);
+            stopping |= batch.remove(STOP);
+            if (!batch.isEmpty()) {
+                rewrite(batch);
+            }
+        }
+    }
+
+    private static void rewrite(List<Mutation> batch) {
+        try {
+            if (model == null || model.lastModified != catalogFile.lastModified()) {
+                model = new CatalogModel(parse());
+            }
+            for (Mutation mutation : batch) {
+                try {
+                    mutation.apply(model);
+                    applied.increment();
+                } catch (Exception e) {
+                    failed.increment();
+                    System.err.println("Catalog XML change skipped: " + e.getMessage());
+                }
+            }
+            write(model.doc);
+            model.lastModified = catalogFile.lastModified();
+            rewrites.increment();
+            lastRewriteMillis.set(System.currentTimeMillis());
+        } catch (Exception e) {
+            // The next batch starts again from what is on disk
+            model = null;
+            failed.add(batch.size());
+            System.err.println("Could not rewrite " + catalogFile + ", " + batch.size() + " changes lost");
+            e.printStackTrace();
+        }
+    }
+
+    private static Document parse() throws Exception {
+        DocumentBuilder docBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+        if (catalogFile.exists()) {
+            return docBuilder.parse(catalogFile);
+        }
+        Document doc = docBuilder.newDocument();
+        doc.appendChild(doc.createElement("ProductCatalog"));
+        return doc;
+    }
+
+    private static void write(Document doc) throws Exception {
+        File directory = catalogFile.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(catalogFile.getName(), ".tmp", directory);
+        try {
+            Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+            transformer.transform(new DOMSource(doc), new StreamResult(temp));
+            try {
+                Files.move(temp.toPath(), catalogFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), catalogFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    // The text of every product element, built before the model is touched so a row that cannot
+    // be written leaves the file as it was. NULL columns map to null: their element is left out,
+    // or removed from an existing entry, so the XML import falls back to its default rather than
+    // parsing an empty number.
+    private static Map<String, String> elementValues(Map<String, Object> product) {
+        Map<String, String> elements = new LinkedHashMap<>();
+        for (String name : PRODUCT_ELEMENTS) {
+            Object value = product.get(name);
+            elements.put(name, value != null ? value.toString() : null);
+        }
+        elements.put("ProductID", productId(product.get("ProductID")));
+        return elements;
+    }
+
+    private static void updateProductElement(Element product, Map<String, String> elements) {
+        for (Map.Entry<String, String> element : elements.entrySet()) {
+            updateElement(product, element.getKey(), element.getValue());
+        }
+    }
+
+    private static Map<String, Object> copyOf(Map<String, Object> row) {
+        return row != null ? new HashMap<>(row) : Collections.emptyMap();
+    }
+
+    // Gson hands JSON numbers over as doubles
+    private static String productId(Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Product has no ProductID");
+        }
+        return String.valueOf((int) Double.parseDouble(value.toString()));
+    }
+
+    // A null textContent removes the element.
+    private static void updateElement(Element parent, String elementName, String textContent) {
+        NodeList elements = parent.getElementsByTagName(elementName);
+        if (textContent == null) {
+            while (elements.getLength() > 0) {
+                elements.item(0).getParentNode().removeChild(elements.item(0));
+            }
+        } else if (elements.getLength() > 0) {
+            elements.item(0).setTextContent(textContent);
+        } else {
+            Element newElement = parent.getOwnerDocument().createElement(elementName);
+            newElement.setTextContent(textContent);
+            parent.appendChild(newElement);
+        }
+    }
+
+    private static String getElementTextContent(Element parent, String elementName) {
+        NodeList elements = parent.getElementsByTagName(elementName);
+        if (elements.getLength() > 0) {
+            return elements.item(0).getTextContent();
+        }
+        return "";
+    }
+
+    // The parsed catalog with its Product elements indexed. Lists hold every element under a
+    // key in document order, so a duplicate entry is found once the first one is removed.
+    private static final class CatalogModel {
+        final Document doc;
+        final Map<Integer, List<Element>> byId = new HashMap<>();
+        final Map<String, List<Element>> byLegacyKey = new HashMap<>();
+        long lastModified;
+
+        CatalogModel(Document doc) {
+            this.doc = doc;
+            NodeList products = doc.getElementsByTagName("Product");
+            for (int i = 0; i < products.getLength(); i++) {
+                index((Element) products.item(i));
+            }
+            lastModified = catalogFile.lastModified();
+        }
+
+        // By ProductID, else a legacy entry with the product's name, category and price.
+        Element find(int productId, Map<String, Object> product) {
+            List<Element> elements = byId.get(productId);
+            if (elements == null && product.get("ProductPrice") != null) {
+                elements = byLegacyKey.get(legacyKey(product.get("ProductModelName"),
+                        product.get("ProductCategory"), product.get("ProductPrice")));
+            }
+            return elements != null ? elements.get(0) : null;
+        }
+
+        void add(Element product) {
+            doc.getDocumentElement().appendChild(product);
+            index(product);
+        }
+
+        void remove(Element product) {
+            unindex(product);
+            product.getParentNode().removeChild(product);
+        }
+
+        void index(Element product) {
+            Integer productId = elementProductId(product);
+            if (productId != null) {
+                byId.computeIfAbsent(productId, k -> new ArrayList<>(1)).add(product);
+            } else {
+                byLegacyKey.computeIfAbsent(elementLegacyKey(product), k -> new ArrayList<>(1)).add(product);
+            }
+        }
+
+        void unindex(Element product) {
+            Integer productId = elementProductId(product);
+            if (productId != null) {
+                removeFrom(byId, productId, product);
+            } else {
+                removeFrom(byLegacyKey, elementLegacyKey(product), product);
+            }
+        }
+
+        private static <K> void removeFrom(Map<K, List<Element>> index, K key, Element product) {
+            List<Element> elements = index.get(key);
+            if (elements != null && elements.remove(product) && elements.isEmpty()) {
+                index.remove(key);
+            }
+        }
+
+        // Compares the integer part of the ProductID; null when there is none.
+        private static Integer elementProductId(Element product) {
+            NodeList productIdNodes = product.getElementsByTagName("ProductID");
+            if (productIdNodes.getLength() == 0) {
+                return null;
+            }
+            try {
+                return Integer.valueOf(productIdNodes.item(0).getTextContent().trim().split("\\.")[0]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        private static String elementLegacyKey(Element product) {
+            return legacyKey(getElementTextContent(product, "ProductModelName"),
+                    getElementTextContent(product, "ProductCategory"), getElementTextContent(product, "ProductPrice"));
+        }
+
+        // Prices compare by value, so 229.00 in the file matches 229.0 from JSON
+        private static String legacyKey(Object name, Object category, Object price) {
+            String priceKey = String.valueOf(price).trim();
+            try {
+                priceKey = new BigDecimal(priceKey).stripTrailingZeros().toPlainString();
+            } catch (NumberFormatException e) {
+                // Not a number; compare the text as it is
+            }
+            return name + "\u0000" + category + "\u0000" + priceKey;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package utilities;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+// ETag / Last-Modified handling for GET responses built from versioned in-memory data such as
+// ProductCatalog. The servlet passes the validators of what it is about to send before building
+// it; when the client already holds that version it gets a 304 and nothing is read or serialised.
+public class ConditionalGet {
+    // Versions restart with the JVM, so the ETag also names the process that issued it
+    private static final String EPOCH = Long.toString(System.currentTimeMillis(), 36);
+
+    // Sets ETag, Last-Modified and Cache-Control: no-cache (browsers keep the response but ask
+    // before reusing it). Returns true after sending 304 Not Modified when If-None-Match, or
+    // If-Modified-Since when there is no If-None-Match, shows the client is up to date; the
+    // caller then writes nothing.
+    //
+    // HTTP dates have whole seconds, so a change within the second of the previous one would
+    // carry the same Last-Modified. Last-Modified is therefore only sent, and If-Modified-Since
+    // only honoured, once the data is at least a second old: any later change then falls in a
+    // later second. Until then clients revalidate with the ETag alone.
+    public static boolean notModified(HttpServletRequest request, HttpServletResponse response, String version, long modifiedMillis) {
+        String etag = "\"" + EPOCH + "-" + version + "\"";
+        long lastModified = modifiedMillis / 1000 * 1000;
+        boolean lastModifiedSettled = System.currentTimeMillis() - modifiedMillis >= 1000;
+        response.setHeader("ETag", etag);
+        if (lastModifiedSettled) {
+            response.setDateHeader("Last-Modified", lastModified);
+        }
+        response.setHeader("Cache-Control", "no-cache");
+
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        boolean notModified;
+        if (ifNoneMatch != null) {
+            notModified = matches(ifNoneMatch, etag);
+        } else {
+            long ifModifiedSince = dateHeader(request, "If-Modified-Since");
+            notModified = lastModifiedSettled && ifModifiedSince >= 0 && lastModified <= ifModifiedSince;
+        }
+        if (notModified) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        }
+        return notModified;
+    }
+
+    // If-None-Match uses the weak comparison, so W/"..." matches too.
+    private static boolean matches(String ifNoneMatch, String etag) {
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // -1 when the header is missing or not a valid date, in which case it is ignored.
+    private static long dateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+}
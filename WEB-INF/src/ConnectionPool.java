@@ -0,0 +1,583 @@
+package utilities;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class ConnectionPool {
+    // SQLState of the exception getConnection throws when every connection stayed busy for
+    // connectionTimeoutMillis: the server is reachable, the pool is just exhausted.
+    public static final String TIMEOUT_SQL_STATE = "HYT00";
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int minSize;
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+    private final long maxLifetimeMillis;
+    private final long connectionTimeoutMillis;
+    private final String validationQuery;
+    private final long validationIntervalMillis;
+    private final int statementCacheSize;
+    private final boolean useServerPrepStmts;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final Deque<PooledEntry> idle = new ArrayDeque<>();
+    private final ScheduledExecutorService housekeeper;
+
+    private int total;
+    private int active;
+    private int waiters;
+    private boolean shutdown;
+
+    private long createdCount;
+    private long destroyedCount;
+    private long borrowCount;
+    private long waitCount;
+    private long timeoutCount;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+
+    private final LongAdder statementHits = new LongAdder();
+    private final LongAdder statementMisses = new LongAdder();
+    private final LongAdder statementEvictions = new LongAdder();
+
+    public ConnectionPool(String url, String user, String password, Map<String, String> settings) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.minSize = intSetting(settings, "minSize", 2);
+        this.maxSize = Math.max(1, intSetting(settings, "maxSize", 20));
+        this.idleTimeoutMillis = longSetting(settings, "idleTimeoutMillis", 600000L);
+        this.maxLifetimeMillis = longSetting(settings, "maxLifetimeMillis", 1800000L);
+        this.connectionTimeoutMillis = longSetting(settings, "connectionTimeoutMillis", 30000L);
+        String query = settings.get("validationQuery");
+        this.validationQuery = query != null && !query.trim().isEmpty() ? query.trim() : null;
+        this.validationIntervalMillis = longSetting(settings, "validationIntervalMillis", 1000L);
+        this.statementCacheSize = intSetting(settings, "statementCacheSize", 64);
+        this.useServerPrepStmts = Boolean.parseBoolean(settings.getOrDefault("useServerPrepStmts", "true"));
+
+        housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "mysql-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        housekeeper.scheduleWithFixedDelay(this::housekeep, 0, 30, TimeUnit.SECONDS);
+    }
+
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(connectionTimeoutMillis);
+        boolean waited = false;
+
+        while (true) {
+            PooledEntry entry = null;
+            boolean create = false;
+
+            lock.lock();
+            try {
+                while (true) {
+                    if (shutdown) {
+                        throw new SQLException("Connection pool has been shut down");
+                    }
+                    entry = idle.pollFirst();
+                    if (entry != null || total < maxSize) {
+                        break;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        timeoutCount++;
+                        throw new SQLTransientConnectionException("Timed out after " + connectionTimeoutMillis
+                                + " ms waiting for a database connection (active: " + active + ", max: " + maxSize + ")",
+                                TIMEOUT_SQL_STATE);
+                    }
+                    waited = true;
+                    waiters++;
+                    try {
+                        available.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while waiting for a database connection", e);
+                    } finally {
+                        waiters--;
+                    }
+                }
+                if (entry == null) {
+                    total++;
+                    create = true;
+                }
+                active++;
+            } finally {
+                lock.unlock();
+            }
+
+            if (create) {
+                try {
+                    entry = openEntry();
+                } catch (SQLException e) {
+                    lock.lock();
+                    try {
+                        total--;
+                        active--;
+                        available.signal();
+                    } finally {
+                        lock.unlock();
+                    }
+                    throw e;
+                }
+            } else if (isExpired(entry, System.currentTimeMillis()) || !isHealthy(entry, System.currentTimeMillis())) {
+                lock.lock();
+                try {
+                    active--;
+                } finally {
+                    lock.unlock();
+                }
+                destroy(entry, true);
+                continue;
+            }
+
+            long waitNanos = System.nanoTime() - start;
+            lock.lock();
+            try {
+                borrowCount++;
+                if (waited) {
+                    waitCount++;
+                }
+                totalWaitNanos += waitNanos;
+                maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+            } finally {
+                lock.unlock();
+            }
+            return entry.lease();
+        }
+    }
+
+    public static boolean isTimeout(SQLException e) {
+        return TIMEOUT_SQL_STATE.equals(e.getSQLState());
+    }
+
+    public Map<String, Object> getStats() {
+        lock.lock();
+        try {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("active", active);
+            stats.put("idle", idle.size());
+            stats.put("total", total);
+            stats.put("waiters", waiters);
+            stats.put("minSize", minSize);
+            stats.put("maxSize", maxSize);
+            stats.put("borrowCount", borrowCount);
+            stats.put("waitCount", waitCount);
+            stats.put("timeoutCount", timeoutCount);
+            stats.put("totalWaitMillis", totalWaitNanos / 1000000.0);
+            stats.put("avgWaitMillis", borrowCount > 0 ? (totalWaitNanos / 1000000.0) / borrowCount : 0.0);
+            stats.put("maxWaitMillis", maxWaitNanos / 1000000.0);
+            stats.put("createdCount", createdCount);
+            stats.put("destroyedCount", destroyedCount);
+            return stats;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Map<String, Object> getStatementCacheStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("statementCacheSize", statementCacheSize);
+        stats.put("serverPreparedStatements", useServerPrepStmts);
+        stats.put("preparedStatementHits", statementHits.sum());
+        stats.put("preparedStatementMisses", statementMisses.sum());
+        stats.put("preparedStatementEvictions", statementEvictions.sum());
+        return stats;
+    }
+
+    public boolean usesCursorFetch() {
+        return useServerPrepStmts;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void shutdown() {
+        List<PooledEntry> toClose;
+        lock.lock();
+        try {
+            shutdown = true;
+            toClose = new ArrayList<>(idle);
+            idle.clear();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        housekeeper.shutdownNow();
+        for (PooledEntry entry : toClose) {
+            destroy(entry, true);
+        }
+    }
+
+    private PooledEntry openEntry() throws SQLException {
+        Properties props = new Properties();
+        if (user != null) {
+            props.setProperty("user", user);
+        }
+        if (password != null) {
+            props.setProperty("password", password);
+        }
+        // Server-side statements only pay off because the pool keeps them open per connection.
+        props.setProperty("useServerPrepStmts", String.valueOf(useServerPrepStmts));
+        // Lets a positive fetch size read through a server-side cursor instead of buffering the whole result.
+        props.setProperty("useCursorFetch", String.valueOf(useServerPrepStmts));
+        // Turns JDBC insert batches into a single multi-row INSERT round trip.
+        props.setProperty("rewriteBatchedStatements", "true");
+        Connection physical = DriverManager.getConnection(url, props);
+        lock.lock();
+        try {
+            createdCount++;
+        } finally {
+            lock.unlock();
+        }
+        return new PooledEntry(physical);
+    }
+
+    private void release(PooledEntry entry) {
+        entry.releaseStatements();
+        boolean reusable = !entry.broken && !isExpired(entry, System.currentTimeMillis());
+        if (reusable) {
+            try {
+                if (!entry.physical.getAutoCommit()) {
+                    entry.physical.rollback();
+                    entry.physical.setAutoCommit(true);
+                }
+                if (entry.physical.isReadOnly()) {
+                    entry.physical.setReadOnly(false);
+                }
+            } catch (SQLException e) {
+                reusable = false;
+            }
+        }
+
+        lock.lock();
+        try {
+            active--;
+            if (reusable && !shutdown) {
+                entry.lastUsed = System.currentTimeMillis();
+                idle.addFirst(entry);
+                available.signal();
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        destroy(entry, true);
+    }
+
+    private void destroy(PooledEntry entry, boolean wasCounted) {
+        try {
+            entry.physical.close();
+        } catch (SQLException ignored) {
+        }
+        lock.lock();
+        try {
+            if (wasCounted) {
+                total--;
+            }
+            destroyedCount++;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isExpired(PooledEntry entry, long now) {
+        return maxLifetimeMillis > 0 && now - entry.createdAt > maxLifetimeMillis;
+    }
+
+    // A connection returned within validationIntervalMillis was working a moment ago and is
+    // handed out without the extra round trip.
+    private boolean isHealthy(PooledEntry entry, long now) {
+        if (now - entry.lastUsed < validationIntervalMillis) {
+            return true;
+        }
+        try {
+            if (validationQuery == null) {
+                return entry.physical.isValid(5);
+            }
+            try (Statement stmt = entry.physical.createStatement()) {
+                stmt.setQueryTimeout(5);
+                stmt.execute(validationQuery);
+            }
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void housekeep() {
+        List<PooledEntry> retired = new ArrayList<>();
+        int missing;
+        lock.lock();
+        try {
+            if (shutdown) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            Iterator<PooledEntry> it = idle.descendingIterator();
+            while (it.hasNext()) {
+                PooledEntry entry = it.next();
+                boolean idleTooLong = idleTimeoutMillis > 0 && now - entry.lastUsed > idleTimeoutMillis
+                        && total - retired.size() > minSize;
+                if (idleTooLong || isExpired(entry, now)) {
+                    it.remove();
+                    retired.add(entry);
+                }
+            }
+            missing = Math.max(0, minSize - (total - retired.size()));
+            total += missing;
+        } finally {
+            lock.unlock();
+        }
+
+        for (PooledEntry entry : retired) {
+            destroy(entry, true);
+        }
+        for (int i = 0; i < missing; i++) {
+            try {
+                PooledEntry entry = openEntry();
+                lock.lock();
+                try {
+                    if (shutdown) {
+                        total--;
+                        entry.physical.close();
+                    } else {
+                        idle.addLast(entry);
+                        available.signal();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            } catch (SQLException e) {
+                lock.lock();
+                try {
+                    total -= missing - i;
+                } finally {
+                    lock.unlock();
+                }
+                break;
+            }
+        }
+    }
+
+    private static int intSetting(Map<String, String> settings, String key, int defaultValue) {
+        String value = settings.get(key);
+        return value != null && !value.trim().isEmpty() ? Integer.parseInt(value.trim()) : defaultValue;
+    }
+
+    private static long longSetting(Map<String, String> settings, String key, long defaultValue) {
+        String value = settings.get(key);
+        return value != null && !value.trim().isEmpty() ? Long.parseLong(value.trim()) : defaultValue;
+    }
+
+    private class PooledEntry {
+        final Connection physical;
+        final long createdAt = System.currentTimeMillis();
+        long lastUsed = createdAt;
+        boolean broken;
+        final LinkedHashMap<String, CachedStatement> statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if (size() <= statementCacheSize) {
+                    return false;
+                }
+                statementEvictions.increment();
+                eldest.getValue().evict();
+                return true;
+            }
+        };
+
+        PooledEntry(Connection physical) {
+            this.physical = physical;
+        }
+
+        PreparedStatement prepare(Connection owner, String sql, Integer autoGeneratedKeys) throws SQLException {
+            if (statementCacheSize <= 0) {
+                return autoGeneratedKeys == null ? physical.prepareStatement(sql) : physical.prepareStatement(sql, autoGeneratedKeys);
+            }
+            String key = autoGeneratedKeys == null ? sql : autoGeneratedKeys + ":" + sql;
+            CachedStatement cached = statements.get(key);
+            if (cached != null && !cached.inUse) {
+                statementHits.increment();
+                return cached.lease(owner);
+            }
+            statementMisses.increment();
+            PreparedStatement statement = autoGeneratedKeys == null
+                    ? physical.prepareStatement(sql) : physical.prepareStatement(sql, autoGeneratedKeys);
+            if (cached != null) {
+                // Same SQL prepared twice before the first was closed; the second one isn't cached.
+                return statement;
+            }
+            cached = new CachedStatement(statement);
+            statements.put(key, cached);
+            return cached.lease(owner);
+        }
+
+        void releaseStatements() {
+            for (CachedStatement cached : statements.values()) {
+                cached.reset();
+            }
+        }
+
+        // Each lease hands out a fresh proxy so a stale reference can't close a connection
+        // that has already been given to somebody else.
+        Connection lease() {
+            InvocationHandler handler = new InvocationHandler() {
+                private boolean closed;
+
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    switch (method.getName()) {
+                        case "close":
+                            if (!closed) {
+                                closed = true;
+                                release(PooledEntry.this);
+                            }
+                            return null;
+                        case "isClosed":
+                            return closed || physical.isClosed();
+                        case "unwrap":
+                            if (((Class<?>) args[0]).isInstance(proxy)) {
+                                return proxy;
+                            }
+                            break;
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "toString":
+                            return "Pooled" + physical;
+                        default:
+                            break;
+                    }
+                    if (closed) {
+                        throw new SQLException("Connection has already been returned to the pool");
+                    }
+                    if (method.getName().equals("prepareStatement")) {
+                        if (args.length == 1) {
+                            return prepare((Connection) proxy, (String) args[0], null);
+                        }
+                        if (args.length == 2 && method.getParameterTypes()[1] == int.class) {
+                            return prepare((Connection) proxy, (String) args[0], (Integer) args[1]);
+                        }
+                    }
+                    try {
+                        return method.invoke(physical, args);
+                    } catch (InvocationTargetException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof SQLNonTransientConnectionException
+                                || cause instanceof SQLRecoverableException) {
+                            broken = true;
+                        }
+                        throw cause;
+                    }
+                }
+            };
+            return (Connection) Proxy.newProxyInstance(
+                    ConnectionPool.class.getClassLoader(), new Class<?>[]{Connection.class}, handler);
+        }
+    }
+
+    private static class CachedStatement {
+        final PreparedStatement physical;
+        boolean inUse;
+        boolean evicted;
+        int generation;
+
+        CachedStatement(PreparedStatement physical) {
+            this.physical = physical;
+        }
+
+        PreparedStatement lease(Connection owner) {
+            inUse = true;
+            int leased = ++generation;
+            InvocationHandler handler = (proxy, method, args) -> {
+                boolean current = leased == generation && inUse;
+                switch (method.getName()) {
+                    case "close":
+                        if (current) {
+                            giveBack();
+                        }
+                        return null;
+                    case "isClosed":
+                        return !current || physical.isClosed();
+                    case "getConnection":
+                        return owner;
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        break;
+                }
+                if (!current) {
+                    throw new SQLException("Statement is closed");
+                }
+                try {
+                    return method.invoke(physical, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            };
+            return (PreparedStatement) Proxy.newProxyInstance(
+                    ConnectionPool.class.getClassLoader(), new Class<?>[]{PreparedStatement.class}, handler);
+        }
+
+        void giveBack() throws SQLException {
+            inUse = false;
+            generation++;
+            if (evicted) {
+                physical.close();
+                return;
+            }
+            ResultSet open = physical.getResultSet();
+            if (open != null) {
+                open.close();
+            }
+            physical.clearParameters();
+            physical.clearBatch();
+            physical.setFetchSize(0);
+        }
+
+        void evict() {
+            evicted = true;
+            if (!inUse) {
+                try {
+                    physical.close();
+                } catch (SQLException ignored) {
+                }
+            }
+        }
+
+        void reset() {
+            if (inUse) {
+                try {
+                    giveBack();
+                } catch (SQLException ignored) {
+                }
+            }
+        }
+    }
+}
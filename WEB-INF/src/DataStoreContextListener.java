@@ -0,0 +1,114 @@
+package utilities;
+
+import com.mongodb.MongoException;
+import java.sql.SQLException;
+import java.util.*;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+@WebListener
+public class DataStoreContextListener implements ServletContextListener {
+    private static final String MYSQL_PREFIX = "mysql.";
+    private static final String MONGO_PREFIX = "mongo.";
+    private static final String POOL_PREFIX = "pool.";
+
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+        ServletContext context = event.getServletContext();
+        String xmlFilePath = context.getRealPath("/WEB-INF/ProductCatalog.xml");
+        if (xmlFilePath != null) {
+            CatalogXmlWriter.start(xmlFilePath);
+        } else {
+            context.log("ProductCatalog.xml is not on the file system; product writes will not update it");
+        }
+
+        Map<String, String> mongoSettings = readSettings(context, MONGO_PREFIX);
+        MongoDBDataStoreUtilities.configure(mongoSettings);
+        context.log("MongoDB client started");
+
+        if (Boolean.parseBoolean(mongoSettings.getOrDefault("ensureIndexes", "true").trim())) {
+            try {
+                context.log("productReviews indexes: " + MongoIndexes.ensureIndexes());
+            } catch (MongoException e) {
+                context.log("Could not create productReviews indexes", e);
+            }
+        }
+
+        try {
+            MongoDBDataStoreUtilities.ensureRatingSummaries();
+        } catch (MongoException e) {
+            context.log("Could not build product rating summaries", e);
+        }
+
+        if (Boolean.parseBoolean(mongoSettings.getOrDefault("verifyIndexes", "false").trim())) {
+            List<String> collectionScans;
+            try {
+                collectionScans = MongoIndexes.verify();
+            } catch (MongoException e) {
+                throw new IllegalStateException("Index verification could not run", e);
+            }
+            if (!collectionScans.isEmpty()) {
+                throw new IllegalStateException("Index verification failed: " + collectionScans);
+            }
+            context.log("Index verification passed");
+        }
+
+        Map<String, String> settings = readSettings(context, MYSQL_PREFIX);
+        try {
+            MySQLDataStoreUtilities.configure(settings);
+            context.log("MySQL connection pool started: " + MySQLDataStoreUtilities.getPoolStats());
+        } catch (SQLException e) {
+            context.log("Failed to start MySQL connection pool", e);
+            return;
+        }
+
+        if (Boolean.parseBoolean(settings.getOrDefault("migrate", "true").trim())) {
+            try {
+                context.log("MySQL schema at version " + SchemaMigrations.migrate());
+            } catch (SQLException e) {
+                context.log("Schema migration failed", e);
+            }
+        }
+
+        // Verification is meant for test and staging deployments: a full scan stops the webapp from starting.
+        if (Boolean.parseBoolean(settings.getOrDefault("verifySchema", "false").trim())) {
+            List<String> fullScans;
+            try {
+                fullScans = SchemaMigrations.verify();
+            } catch (SQLException e) {
+                throw new IllegalStateException("Schema verification could not run", e);
+            }
+            if (!fullScans.isEmpty()) {
+                throw new IllegalStateException("Schema verification failed: " + fullScans);
+            }
+            context.log("Schema verification passed");
+        }
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+        // Writes out any queued ProductCatalog.xml changes
+        CatalogXmlWriter.shutdown();
+        MySQLDataStoreUtilities.shutdown();
+        MongoDBDataStoreUtilities.shutdown();
+    }
+
+    // <Parameter name="mysql.pool.maxSize" value="20"/> becomes "maxSize" -> "20" (same for "mongo.")
+    private static Map<String, String> readSettings(ServletContext context, String prefix) {
+        Map<String, String> settings = new HashMap<>();
+        Enumeration<String> names = context.getInitParameterNames();
+        while (names.hasMoreElements()) {
+            String name = names.nextElement();
+            if (name.startsWith(prefix)) {
+                String key = name.substring(prefix.length());
+                if (key.startsWith(POOL_PREFIX)) {
+                    key = key.substring(POOL_PREFIX.length());
+                }
+                settings.put(key, context.getInitParameter(name));
+            }
+        }
+        return settings;
+    }
+}
@@ -0,0 +1,109 @@
+package utilities;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Runs data-store calls off the request thread for MySQLDataStoreUtilities' *Async methods.
+// At most "threads" calls run at once, each holding at most one pooled connection. By default
+// that is half the pool, so a burst of async work leaves the rest to request threads; a thread
+// count at or above the pool size lets async calls take every connection while synchronous
+// callers wait in acquireConnection. With platform threads the extra work waits in a
+// bounded queue and, once that is full, runs on the caller's thread. With virtual threads
+// (Java 21+) every call gets its own thread and a semaphore does the bounding.
+public class DataStoreExecutor {
+    private final int threads;
+    private final boolean virtualThreads;
+    private final ExecutorService executor;
+    private final Semaphore permits;
+
+    private final AtomicInteger running = new AtomicInteger();
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    public DataStoreExecutor(int threads, int queueSize, boolean useVirtualThreads) {
+        this.threads = Math.max(1, threads);
+        ExecutorService virtual = useVirtualThreads ? newVirtualThreadExecutor() : null;
+        this.virtualThreads = virtual != null;
+        if (virtual != null) {
+            executor = virtual;
+            permits = new Semaphore(this.threads);
+        } else {
+            AtomicInteger count = new AtomicInteger();
+            executor = new ThreadPoolExecutor(this.threads, this.threads, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(Math.max(1, queueSize)), r -> {
+                        Thread t = new Thread(r, "mysql-async-" + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }, new ThreadPoolExecutor.CallerRunsPolicy());
+            ((ThreadPoolExecutor) executor).allowCoreThreadTimeOut(true);
+            permits = null;
+        }
+    }
+
+    public <T> CompletableFuture<T> submit(MySQLDataStoreUtilities.UnitOfWork<T> work) {
+        submitted.increment();
+        return CompletableFuture.supplyAsync(() -> {
+            if (permits != null) {
+                permits.acquireUninterruptibly();
+            }
+            running.incrementAndGet();
+            try {
+                T result = work.execute();
+                completed.increment();
+                return result;
+            } catch (Exception e) {
+                failed.increment();
+                throw e instanceof RuntimeException ? (RuntimeException) e : new CompletionException(e);
+            } finally {
+                running.decrementAndGet();
+                if (permits != null) {
+                    permits.release();
+                }
+            }
+        }, executor);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("threads", threads);
+        stats.put("virtualThreads", virtualThreads);
+        stats.put("running", running.get());
+        stats.put("queued", executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) executor).getQueue().size() : 0);
+        stats.put("submitted", submitted.sum());
+        stats.put("completed", completed.sum());
+        stats.put("failed", failed.sum());
+        return stats;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Looked up reflectively so the webapp still builds and runs on Java versions before 21.
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            System.err.println("Virtual threads are not available on this JVM, using a thread pool instead");
+            return null;
+        }
+    }
+}
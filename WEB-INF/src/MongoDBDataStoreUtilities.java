@@ -1,61 +1,418 @@
 package utilities;
 
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ReadPreference;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import org.bson.conversions.Bson;
 import org.bson.Document;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 public class MongoDBDataStoreUtilities {
     private static final String MONGO_URI = "mongodb://localhost:27017";
     private static final String DB_NAME = "smarthomes";
     private static final String COLLECTION_NAME = "productReviews";
+    private static final String RATING_SUMMARY_COLLECTION_NAME = "productRatingSummary";
+    private static final UpdateOptions UPSERT = new UpdateOptions().upsert(true);
+    // Declared in MongoIndexes; the rebuild reads only these two fields, so it never fetches documents
+    static final Bson RATING_INDEX = Indexes.compoundIndex(Indexes.ascending("productId"), Indexes.ascending("reviewRating"));
 
-    private static MongoCollection<Document> getCollection() {
-        MongoClient mongoClient = MongoClients.create(MONGO_URI);
-        MongoDatabase database = mongoClient.getDatabase(DB_NAME);
-        return database.getCollection(COLLECTION_NAME);
+    private static final MongoPoolMetrics poolMetrics = new MongoPoolMetrics();
+
+    // One client (and so one connection pool and one set of monitor threads) for the whole webapp.
+    private static volatile MongoClient client;
+    private static volatile String databaseName = DB_NAME;
+    // Documents per cursor round trip when the caller does not ask for a size (0 = driver default)
+    private static volatile int batchSize = 0;
+    // When this webapp last wrote rating summaries, so ProductCatalog knows to re-read their updatedAt
+    private static volatile long lastRatingSummaryWriteMillis;
+
+    // Called from DataStoreContextListener with the "mongo.*" parameters from META-INF/context.xml.
+    public static synchronized void configure(Map<String, String> settings) {
+        MongoClient previous = client;
+        databaseName = settings.getOrDefault("database", DB_NAME);
+        Integer configuredBatchSize = intSetting(settings, "batchSize");
+        batchSize = configuredBatchSize != null ? configuredBatchSize : 0;
+        client = createClient(settings);
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    public static synchronized void shutdown() {
+        if (client != null) {
+            client.close();
+            client = null;
+        }
+    }
+
+    public static Map<String, Object> getPoolStats() {
+        return client != null ? poolMetrics.getStats() : Collections.emptyMap();
+    }
+
+    public static MongoDatabase getDatabase() {
+        MongoClient current = client;
+        if (current == null) {
+            synchronized (MongoDBDataStoreUtilities.class) {
+                if (client == null) {
+                    client = createClient(Collections.emptyMap());
+                }
+                current = client;
+            }
+        }
+        return current.getDatabase(databaseName);
+    }
+
+    public static MongoCollection<Document> getCollection() {
+        return getDatabase().getCollection(COLLECTION_NAME);
+    }
+
+    // Unset values keep the driver defaults (or whatever the URI specifies).
+    private static MongoClient createClient(Map<String, String> settings) {
+        MongoClientSettings.Builder builder = MongoClientSettings.builder()
+                .applyConnectionString(new ConnectionString(settings.getOrDefault("uri", MONGO_URI)))
+                .applyToConnectionPoolSettings(pool -> {
+                    Integer maxSize = intSetting(settings, "maxSize");
+                    if (maxSize != null) {
+                        pool.maxSize(maxSize);
+                    }
+                    Integer minSize = intSetting(settings, "minSize");
+                    if (minSize != null) {
+                        pool.minSize(minSize);
+                    }
+                    Integer maxWait = intSetting(settings, "maxWaitTimeMillis");
+                    if (maxWait != null) {
+                        pool.maxWaitTime(maxWait, TimeUnit.MILLISECONDS);
+                    }
+                    Integer maxIdle = intSetting(settings, "maxConnectionIdleTimeMillis");
+                    if (maxIdle != null) {
+                        pool.maxConnectionIdleTime(maxIdle, TimeUnit.MILLISECONDS);
+                    }
+                    pool.addConnectionPoolListener(poolMetrics);
+                })
+                .applyToSocketSettings(socket -> {
+                    Integer connectTimeout = intSetting(settings, "connectTimeoutMillis");
+                    if (connectTimeout != null) {
+                        socket.connectTimeout(connectTimeout, TimeUnit.MILLISECONDS);
+                    }
+                    Integer socketTimeout = intSetting(settings, "socketTimeoutMillis");
+                    if (socketTimeout != null) {
+                        socket.readTimeout(socketTimeout, TimeUnit.MILLISECONDS);
+                    }
+                })
+                .applyToClusterSettings(cluster -> {
+                    Integer selectionTimeout = intSetting(settings, "serverSelectionTimeoutMillis");
+                    if (selectionTimeout != null) {
+                        cluster.serverSelectionTimeout(selectionTimeout, TimeUnit.MILLISECONDS);
+                    }
+                });
+        String readPreference = settings.get("readPreference");
+        if (readPreference != null && !readPreference.trim().isEmpty()) {
+            builder.readPreference(ReadPreference.valueOf(readPreference.trim()));
+        }
+        return MongoClients.create(builder.build());
+    }
+
+    private static Integer intSetting(Map<String, String> settings, String key) {
+        String value = settings.get(key);
+        return value != null && !value.trim().isEmpty() ? Integer.valueOf(value.trim()) : null;
     }
 
     public static void insertRecord(Map<String, Object> reviewData) {
         MongoCollection<Document> collection = getCollection();
         Document doc = new Document(reviewData);
         collection.insertOne(doc);
+        adjustRatingSummaries(Collections.singletonList(doc), 1);
     }
 
     public static void updateRecord(String reviewId, Map<String, Object> updateFields) {
         MongoCollection<Document> collection = getCollection();
         Document query = new Document("reviewID", reviewId);
         Document update = new Document("$set", new Document(updateFields));
-        collection.updateOne(query, update);
+        Document before = collection.findOneAndUpdate(query, update);
+        if (before != null && (updateFields.containsKey("productId") || updateFields.containsKey("reviewRating"))) {
+            Document after = new Document(before);
+            after.putAll(updateFields);
+            adjustRatingSummaries(Collections.singletonList(before), -1);
+            adjustRatingSummaries(Collections.singletonList(after), 1);
+        }
     }
 
     public static void deleteRecord(String reviewId) {
         MongoCollection<Document> collection = getCollection();
         Document query = new Document("reviewID", reviewId);
-        collection.deleteOne(query);
+        Document deleted = collection.findOneAndDelete(query);
+        if (deleted != null) {
+            adjustRatingSummaries(Collections.singletonList(deleted), -1);
+        }
     }
 
     public static List<Map<String, Object>> getRecords(Map<String, Object> queryFilter) {
-        MongoCollection<Document> collection = getCollection();
-        Document query = new Document(queryFilter);
+        return getRecords(queryFilter, null, null, 0, 0);
+    }
+
+    public static List<Map<String, Object>> getRecords(Map<String, Object> queryFilter, List<String> fields) {
+        return getRecords(queryFilter, fields, null, 0, 0);
+    }
+
+    // fields limits the returned document to those fields (null for the whole document; _id is
+    // only included when listed). sort may be null, limit 0 means no limit and batchSize 0 uses
+    // the configured mongo.batchSize.
+    public static List<Map<String, Object>> getRecords(Map<String, Object> queryFilter, List<String> fields, Bson sort, int limit, int batchSize) {
         List<Map<String, Object>> results = new ArrayList<>();
-        for (Document doc : collection.find(query)) {
-            results.add(doc);
-        }
+        find(queryFilter, fields, sort, limit, batchSize).into(results);
         return results;
     }
 
     public static List<Map<String, Object>> getAllRecords() {
-        MongoCollection<Document> collection = getCollection();
-        List<Map<String, Object>> results = new ArrayList<>();
-        for (Document doc : collection.find()) {
-            results.add(doc);
+        return getRecords(null, null, null, 0, 0);
+    }
+
+    public static List<Map<String, Object>> getAllRecords(List<String> fields) {
+        return getRecords(null, fields, null, 0, 0);
+    }
+
+    // Hands each document to the handler as the cursor returns it instead of collecting them,
+    // so only one batch is held in memory. Returns the number of documents handled.
+    public static long streamRecords(Map<String, Object> queryFilter, List<String> fields, Bson sort, int limit, int batchSize,
+                                     Consumer<Document> handler) {
+        long count = 0;
+        try (MongoCursor<Document> cursor = find(queryFilter, fields, sort, limit, batchSize).iterator()) {
+            while (cursor.hasNext()) {
+                handler.accept(cursor.next());
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static FindIterable<Document> find(Map<String, Object> queryFilter, List<String> fields, Bson sort, int limit, int batchSize) {
+        FindIterable<Document> find = getCollection().find(queryFilter != null ? new Document(queryFilter) : new Document());
+        if (fields != null) {
+            find.projection(fields.contains("_id")
+                    ? Projections.include(fields)
+                    : Projections.fields(Projections.include(fields), Projections.excludeId()));
+        }
+        if (sort != null) {
+            find.sort(sort);
+        }
+        if (limit > 0) {
+            find.limit(limit);
+        }
+        int size = batchSize > 0 ? batchSize : MongoDBDataStoreUtilities.batchSize;
+        if (size > 0) {
+            find.batchSize(size);
+        }
+        return find;
+    }
+
+    public static MongoCollection<Document> getRatingSummaryCollection() {
+        return getDatabase().getCollection(RATING_SUMMARY_COLLECTION_NAME);
+    }
+
+    // Review count, average rating and per-star histogram per product, read from the
+    // productRatingSummary documents (one per product, _id = productId) that review writes keep
+    // up to date. Pass null for every product. Products without reviews are absent from the
+    // result; use RatingSummary.NONE for them.
+    public static Map<String, RatingSummary> getRatingSummaries(Collection<String> productIds) {
+        if (productIds != null && productIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        FindIterable<Document> find = getRatingSummaryCollection().find(productIds != null ? Filters.in("_id", productIds) : new Document());
+        if (productIds != null) {
+            // At most one document per id, so they all fit in the first batch (one round trip).
+            // One spare slot: a batch that comes back exactly full leaves the cursor open and
+            // costs an empty getMore.
+            find.batchSize(productIds.size() + 1);
+        }
+        Map<String, RatingSummary> summaries = new HashMap<>();
+        for (Document doc : find) {
+            Object productId = doc.get("_id");
+            if (productId != null) {
+                summaries.put(productId.toString(), RatingSummary.of(doc));
+            }
+        }
+        return summaries;
+    }
+
+    public static RatingSummary getRatingSummary(String productId) {
+        Document doc = getRatingSummaryCollection().find(Filters.eq("_id", productId)).first();
+        return doc != null ? RatingSummary.of(doc) : RatingSummary.NONE;
+    }
+
+    // Adds (delta 1) or removes (delta -1) the reviews' ratings from their products' summaries
+    // with atomic $inc updates, one per product sent as one unordered bulk write; summaries are
+    // created on first use. Reviews without a productId or numeric rating are not counted. The
+    // review writes and this update are separate operations, so a failure between them leaves
+    // the summary off until rebuildRatingSummaries runs.
+    public static void adjustRatingSummaries(Collection<? extends Map<String, Object>> reviews, int delta) {
+        Map<String, Map<Integer, Integer>> starCounts = new HashMap<>();
+        for (Map<String, Object> review : reviews) {
+            Object productId = review.get("productId");
+            Object rating = review.get("reviewRating");
+            if (productId != null && rating instanceof Number) {
+                starCounts.computeIfAbsent(productId.toString(), k -> new HashMap<>())
+                        .merge(((Number) rating).intValue(), delta, Integer::sum);
+            }
+        }
+        if (starCounts.isEmpty()) {
+            return;
+        }
+
+        List<UpdateOneModel<Document>> updates = new ArrayList<>();
+        for (Map.Entry<String, Map<Integer, Integer>> product : starCounts.entrySet()) {
+            long count = 0;
+            long sum = 0;
+            List<Bson> increments = new ArrayList<>();
+            for (Map.Entry<Integer, Integer> star : product.getValue().entrySet()) {
+                count += star.getValue();
+                sum += (long) star.getKey() * star.getValue();
+                increments.add(Updates.inc("stars." + star.getKey(), star.getValue()));
+            }
+            increments.add(Updates.inc("count", count));
+            increments.add(Updates.inc("sum", sum));
+            increments.add(Updates.currentDate("updatedAt"));
+            updates.add(new UpdateOneModel<>(Filters.eq("_id", product.getKey()), Updates.combine(increments), UPSERT));
+        }
+        try {
+            getRatingSummaryCollection().bulkWrite(updates, new BulkWriteOptions().ordered(false));
+        } finally {
+            ratingSummariesChanged();
+        }
+    }
+
+    // Recomputes every product's summary from the raw reviews and replaces the
+    // productRatingSummary collection with the result ($out swaps it in atomically). Review
+    // writes that land while the rebuild runs may be missing from it. Returns the number of
+    // products summarised.
+    public static long rebuildRatingSummaries() {
+        try {
+            getCollection().aggregate(Arrays.asList(
+                Aggregates.match(Filters.and(Filters.ne("productId", null), Filters.type("reviewRating", "number"))),
+                new Document("$group", new Document("_id", new Document("productId", "$productId").append("rating", "$reviewRating"))
+                        .append("n", new Document("$sum", 1))),
+                new Document("$group", new Document("_id", "$_id.productId")
+                        .append("count", new Document("$sum", "$n"))
+                        .append("sum", new Document("$sum", new Document("$multiply", Arrays.asList("$_id.rating", "$n"))))
+                        .append("stars", new Document("$push", new Document("k", new Document("$toString", "$_id.rating")).append("v", "$n")))),
+                new Document("$project", new Document("count", 1).append("sum", 1)
+                        .append("stars", new Document("$arrayToObject", "$stars"))
+                        .append("updatedAt", "$$NOW")),
+                Aggregates.out(RATING_SUMMARY_COLLECTION_NAME)
+            )).hint(RATING_INDEX).toCollection();
+        } finally {
+            ratingSummariesChanged();
+        }
+        return getRatingSummaryCollection().countDocuments();
+    }
+
+    // Rebuilds the rating summaries from the command line, for example after summary updates
+    // failed or reviews were changed outside the webapp:
+    //   java -cp "$COMPILED_CLASS_DIR:WEB-INF/lib/*" utilities.MongoDBDataStoreUtilities --rebuild-rating-summaries
+    public static void main(String[] args) {
+        if (!Arrays.asList(args).contains("--rebuild-rating-summaries")) {
+            System.err.println("Usage: MongoDBDataStoreUtilities --rebuild-rating-summaries");
+            System.exit(2);
+        }
+        try {
+            System.out.println("Rebuilt rating summaries for " + rebuildRatingSummaries() + " products");
+        } finally {
+            shutdown();
+        }
+    }
+
+    // The latest updatedAt across productRatingSummary (set by every adjust and rebuild, from
+    // any webapp instance), or 0 when there are no summaries. One indexed lookup.
+    public static long getRatingSummariesUpdatedMillis() {
+        Document latest = getRatingSummaryCollection().find()
+                .sort(Sorts.descending("updatedAt"))
+                .projection(Projections.include("updatedAt"))
+                .first();
+        Date updatedAt = latest != null ? latest.getDate("updatedAt") : null;
+        return updatedAt != null ? updatedAt.getTime() : 0;
+    }
+
+    public static long getLastRatingSummaryWriteMillis() {
+        return lastRatingSummaryWriteMillis;
+    }
+
+    private static void ratingSummariesChanged() {
+        lastRatingSummaryWriteMillis = System.currentTimeMillis();
+    }
+
+    // Builds the summaries on first start against a database that already has reviews. The
+    // updatedAt index serves getRatingSummariesUpdatedMillis ($out keeps the target's indexes).
+    public static void ensureRatingSummaries() {
+        getRatingSummaryCollection().createIndex(Indexes.descending("updatedAt"));
+        if (getRatingSummaryCollection().countDocuments() == 0 && getCollection().find().first() != null) {
+            System.out.println("Built rating summaries for " + rebuildRatingSummaries() + " products");
+        }
+    }
+
+    public static final class RatingSummary {
+        public static final RatingSummary NONE = new RatingSummary(0, 0.0, Collections.emptyMap());
+
+        private final int count;
+        private final double average;
+        private final Map<String, Integer> stars;
+
+        public RatingSummary(int count, double average, Map<String, Integer> stars) {
+            this.count = count;
+            this.average = average;
+            this.stars = stars;
+        }
+
+        static RatingSummary of(Document doc) {
+            Number count = doc.get("count", Number.class);
+            Number sum = doc.get("sum", Number.class);
+            int reviews = count != null ? count.intValue() : 0;
+            Map<String, Integer> stars = new HashMap<>();
+            Document histogram = doc.get("stars", Document.class);
+            if (histogram != null) {
+                for (Map.Entry<String, Object> star : histogram.entrySet()) {
+                    if (star.getValue() instanceof Number && ((Number) star.getValue()).intValue() > 0) {
+                        stars.put(star.getKey(), ((Number) star.getValue()).intValue());
+                    }
+                }
+            }
+            return new RatingSummary(reviews, reviews > 0 && sum != null ? sum.doubleValue() / reviews : 0.0, stars);
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public double getAverage() {
+            return average;
+        }
+
+        // Star value ("1".."5") -> number of reviews with that rating
+        public Map<String, Integer> getStars() {
+            return stars;
         }
-        return results;
     }
-}
\ No newline at end of file
+}
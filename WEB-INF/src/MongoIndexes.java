@@ -0,0 +1,147 @@
+package utilities;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Sorts;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import java.util.*;
+import java.util.function.Function;
+
+// The productReviews indexes the webapp's queries rely on, created at startup by
+// DataStoreContextListener. Indexes keep the driver's default names, so they match the ones
+// db/schema.mongo creates and creating one that already exists is a no-op on the server.
+//
+// explain() runs the queryPlanner explain for each query shape the servlets issue and reports
+// the plan stages and index used; verify() lists the shapes that fall back to a collection scan.
+public class MongoIndexes {
+    private static final List<Bson> INDEXES = Arrays.asList(
+        // Reviews by product, and the rating summary rebuild is covered by the index
+        MongoDBDataStoreUtilities.RATING_INDEX,
+        // Product, category and user lookups; the _id suffix serves the review listing's pages in _id order
+        Indexes.compoundIndex(Indexes.ascending("productId"), Indexes.ascending("_id")),
+        Indexes.compoundIndex(Indexes.ascending("productCategory"), Indexes.ascending("_id")),
+        Indexes.compoundIndex(Indexes.ascending("userID"), Indexes.ascending("_id")),
+        Indexes.ascending("reviewID")
+    );
+
+    private static final Map<String, Function<MongoCollection<Document>, Document>> QUERY_SHAPES = new LinkedHashMap<>();
+    static {
+        QUERY_SHAPES.put("Reviews by product", c -> c.find(Filters.eq("productId", "1")).explain());
+        QUERY_SHAPES.put("Rating summary rebuild", c -> c.aggregate(Arrays.asList(
+                Aggregates.match(Filters.and(Filters.ne("productId", null), Filters.type("reviewRating", "number"))),
+                Aggregates.group(new Document("productId", "$productId").append("rating", "$reviewRating"), Accumulators.sum("n", 1))))
+                .hint(MongoDBDataStoreUtilities.RATING_INDEX).explain());
+        QUERY_SHAPES.put("Reviews by category", c -> c.find(Filters.eq("productCategory", "Smart Doorbells")).explain());
+        QUERY_SHAPES.put("Reviews by user", c -> c.find(Filters.eq("userID", "1")).explain());
+        QUERY_SHAPES.put("Review page by product", c -> c.find(Filters.eq("productId", "1"))
+                .sort(Sorts.ascending("_id")).limit(51).explain());
+        QUERY_SHAPES.put("Review page by user", c -> c.find(Filters.and(Filters.eq("userID", "1"), Filters.gt("_id", new ObjectId())))
+                .sort(Sorts.ascending("_id")).limit(51).explain());
+        QUERY_SHAPES.put("Review page by category", c -> c.find(Filters.eq("productCategory", "Smart Doorbells"))
+                .sort(Sorts.ascending("_id")).limit(51).explain());
+        QUERY_SHAPES.put("Review by reviewID", c -> c.find(Filters.eq("reviewID", "1")).explain());
+        QUERY_SHAPES.put("Review by id", c -> c.find(Filters.eq("_id", new ObjectId())).explain());
+    }
+
+    private static volatile Map<String, Object> status = Collections.emptyMap();
+
+    // Returns the names of the declared indexes. An index the server rejects (for example a
+    // conflicting definition created by hand) is logged and does not stop the others; an
+    // unreachable server throws.
+    public static List<String> ensureIndexes() {
+        MongoCollection<Document> collection = MongoDBDataStoreUtilities.getCollection();
+        List<String> created = new ArrayList<>();
+        List<String> failed = new ArrayList<>();
+        for (Bson keys : INDEXES) {
+            try {
+                created.add(collection.createIndex(keys));
+            } catch (MongoCommandException e) {
+                System.err.println("Could not create productReviews index " + keys.toBsonDocument() + ": " + e.getMessage());
+                failed.add(keys.toBsonDocument().toJson());
+            }
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>(status);
+        result.put("indexes", created);
+        result.put("failedIndexes", failed);
+        status = result;
+        return created;
+    }
+
+    // Query shape -> {stages, indexes, collectionScan} from the winning plan.
+    public static Map<String, Object> explain() {
+        MongoCollection<Document> collection = MongoDBDataStoreUtilities.getCollection();
+        Map<String, Object> plans = new LinkedHashMap<>();
+        for (Map.Entry<String, Function<MongoCollection<Document>, Document>> shape : QUERY_SHAPES.entrySet()) {
+            Map<String, Object> plan = new LinkedHashMap<>();
+            try {
+                List<String> stages = new ArrayList<>();
+                Set<String> indexes = new LinkedHashSet<>();
+                collectWinningPlans(shape.getValue().apply(collection), false, stages, indexes);
+                plan.put("stages", stages);
+                plan.put("indexes", indexes);
+                plan.put("collectionScan", stages.contains("COLLSCAN"));
+            } catch (MongoException e) {
+                plan.put("error", e.getMessage());
+            }
+            plans.put(shape.getKey(), plan);
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>(status);
+        result.put("plans", plans);
+        status = result;
+        return plans;
+    }
+
+    // Returns one entry per query shape whose plan scans the whole collection; empty when all use an index.
+    @SuppressWarnings("unchecked")
+    public static List<String> verify() {
+        List<String> collectionScans = new ArrayList<>();
+        for (Map.Entry<String, Object> plan : explain().entrySet()) {
+            Map<String, Object> details = (Map<String, Object>) plan.getValue();
+            if (Boolean.TRUE.equals(details.get("collectionScan"))) {
+                collectionScans.add(plan.getKey() + ": collection scan of productReviews");
+            }
+        }
+        return collectionScans;
+    }
+
+    public static Map<String, Object> getStatus() {
+        return status;
+    }
+
+    // Find and aggregate explains nest the winning plan differently (and differently again
+    // across server versions), so every winningPlan in the document is walked.
+    private static void collectWinningPlans(Object node, boolean inWinningPlan, List<String> stages, Set<String> indexes) {
+        if (node instanceof Document) {
+            Document doc = (Document) node;
+            if (inWinningPlan) {
+                Object stage = doc.get("stage");
+                if (stage != null) {
+                    stages.add(stage.toString());
+                }
+                Object indexName = doc.get("indexName");
+                if (indexName != null) {
+                    indexes.add(indexName.toString());
+                }
+            }
+            for (Map.Entry<String, Object> entry : doc.entrySet()) {
+                if (!"rejectedPlans".equals(entry.getKey())) {
+                    collectWinningPlans(entry.getValue(), inWinningPlan || "winningPlan".equals(entry.getKey()), stages, indexes);
+                }
+            }
+        } else if (node instanceof List) {
+            for (Object item : (List<?>) node) {
+                collectWinningPlans(item, inWinningPlan, stages, indexes);
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package utilities;
+
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckOutStartedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionClosedEvent;
+import com.mongodb.event.ConnectionCreatedEvent;
+import com.mongodb.event.ConnectionPoolClearedEvent;
+import com.mongodb.event.ConnectionPoolListener;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Checkout, wait and size counters for the shared MongoClient's connection pool, fed by the
+// driver's pool events. The sync driver checks connections out on the calling thread, so the
+// wait is measured from the thread's checkout-started event to its checked-out/failed event.
+public class MongoPoolMetrics implements ConnectionPoolListener {
+    private final ThreadLocal<Long> checkOutStarted = new ThreadLocal<>();
+
+    private final LongAdder checkOutCount = new LongAdder();
+    private final LongAdder checkedOutCount = new LongAdder();
+    private final LongAdder checkedInCount = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder closedCount = new LongAdder();
+    private final LongAdder clearedCount = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    @Override
+    public void connectionCheckOutStarted(ConnectionCheckOutStartedEvent event) {
+        checkOutCount.increment();
+        checkOutStarted.set(System.nanoTime());
+    }
+
+    @Override
+    public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+        checkedOutCount.increment();
+        recordWait();
+    }
+
+    @Override
+    public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+        if (event.getReason() == ConnectionCheckOutFailedEvent.Reason.TIMEOUT) {
+            timeoutCount.increment();
+        } else {
+            failedCount.increment();
+        }
+        recordWait();
+    }
+
+    @Override
+    public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+        checkedInCount.increment();
+    }
+
+    @Override
+    public void connectionCreated(ConnectionCreatedEvent event) {
+        createdCount.increment();
+    }
+
+    @Override
+    public void connectionClosed(ConnectionClosedEvent event) {
+        closedCount.increment();
+    }
+
+    @Override
+    public void connectionPoolCleared(ConnectionPoolClearedEvent event) {
+        clearedCount.increment();
+    }
+
+    public Map<String, Object> getStats() {
+        long checkedOut = checkedOutCount.sum();
+        long totalWait = totalWaitNanos.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("inUse", checkedOut - checkedInCount.sum());
+        stats.put("open", createdCount.sum() - closedCount.sum());
+        stats.put("checkOutCount", checkOutCount.sum());
+        stats.put("checkedOutCount", checkedOut);
+        stats.put("timeoutCount", timeoutCount.sum());
+        stats.put("failedCount", failedCount.sum());
+        stats.put("totalWaitMillis", totalWait / 1000000.0);
+        stats.put("avgWaitMillis", checkedOut > 0 ? (totalWait / 1000000.0) / checkedOut : 0.0);
+        stats.put("maxWaitMillis", maxWaitNanos.get() / 1000000.0);
+        stats.put("createdCount", createdCount.sum());
+        stats.put("closedCount", closedCount.sum());
+        stats.put("clearedCount", clearedCount.sum());
+        return stats;
+    }
+
+    private void recordWait() {
+        Long started = checkOutStarted.get();
+        if (started != null) {
+            checkOutStarted.remove();
+            long waited = System.nanoTime() - started;
+            totalWaitNanos.add(waited);
+            maxWaitNanos.accumulateAndGet(waited, Math::max);
+        }
+    }
+}
@@ -1,12 +1,22 @@
 package utilities;
 
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.sql.*;
 import java.util.*;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.NodeList;
-import org.w3c.dom.Element;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 public class MySQLDataStoreUtilities {
     private static final String JDBC_DRIVER = "com.mysql.cj.jdbc.Driver";
@@ -14,51 +24,401 @@ public class MySQLDataStoreUtilities {
     private static final String USER = "root";
     private static final String PASS = "PasswOrd1!";
 
+    private static final int MAX_SQL_SHAPES = 512;
+    private static final Map<String, String> SQL_SHAPES = new ConcurrentHashMap<>();
+    // Table -> lower-cased column name -> column name, read from the primary once per table
+    private static final Map<String, Map<String, String>> TABLE_COLUMNS = new ConcurrentHashMap<>();
+    private static final LongAdder sqlShapeHits = new LongAdder();
+    private static final LongAdder sqlShapeMisses = new LongAdder();
+
+    private static final int DEFAULT_STREAM_FETCH_SIZE = 500;
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    private static final int DEFAULT_CATALOG_BATCH_SIZE = 500;
+    // ProductID is optional in the XML; a NULL lets AUTO_INCREMENT assign one
+    private static final List<String> CATALOG_COLUMNS = Arrays.asList(
+            "ProductID", "ProductModelName", "ProductCategory", "ProductPrice", "ProductOnSale",
+            "ManufacturerName", "ManufacturerRebate", "Inventory", "ProductImage", "ProductDescription");
+    private static final String CATALOG_UPSERT_SQL = catalogUpsertSql();
+
+    private static final String REPLICA_PREFIX = "replica.";
+    private static final long DEFAULT_READ_YOUR_WRITES_MILLIS = 5000;
+
+    private static volatile ConnectionPool pool;
+    private static volatile ReplicaSet replicas;
+    private static volatile DataStoreExecutor asyncExecutor;
+    private static volatile int streamFetchSize = DEFAULT_STREAM_FETCH_SIZE;
+    private static volatile long readYourWritesMillis = DEFAULT_READ_YOUR_WRITES_MILLIS;
+    private static volatile int catalogBatchSize = DEFAULT_CATALOG_BATCH_SIZE;
+
+    private static final LongAdder primaryReads = new LongAdder();
+    private static final LongAdder replicaReads = new LongAdder();
+
+    private static final ThreadLocal<Connection> CURRENT_TRANSACTION = new ThreadLocal<>();
+    private static final ThreadLocal<RequestState> CURRENT_REQUEST = new ThreadLocal<>();
+
+    @FunctionalInterface
+    public interface UnitOfWork<T> {
+        T execute() throws SQLException;
+    }
+
+    @FunctionalInterface
+    public interface RowHandler {
+        void handle(Map<String, Object> row) throws SQLException, IOException;
+    }
+
     public static Connection getConnection() throws SQLException {
+        return pool().getConnection();
+    }
+
+    private static ConnectionPool pool() throws SQLException {
+        ConnectionPool current = pool;
+        if (current == null) {
+            synchronized (MySQLDataStoreUtilities.class) {
+                if (pool == null) {
+                    pool = createPool(Collections.emptyMap());
+                }
+                current = pool;
+            }
+        }
+        return current;
+    }
+
+    // Called from DataStoreContextListener with the "mysql.pool.*" parameters from META-INF/context.xml.
+    public static synchronized void configure(Map<String, String> settings) throws SQLException {
+        ConnectionPool previous = pool;
+        ReplicaSet previousReplicas = replicas;
+        DataStoreExecutor previousExecutor = asyncExecutor;
+        pool = createPool(settings);
+        replicas = createReplicas(settings);
+        asyncExecutor = createExecutor(settings, pool.getMaxSize());
+        String fetchSize = settings.get("streamFetchSize");
+        streamFetchSize = fetchSize != null ? Integer.parseInt(fetchSize.trim()) : DEFAULT_STREAM_FETCH_SIZE;
+        String stickiness = settings.get("readYourWritesMillis");
+        readYourWritesMillis = stickiness != null ? Long.parseLong(stickiness.trim()) : DEFAULT_READ_YOUR_WRITES_MILLIS;
+        String batchSize = settings.get("catalogBatchSize");
+        catalogBatchSize = batchSize != null ? Math.max(1, Integer.parseInt(batchSize.trim())) : DEFAULT_CATALOG_BATCH_SIZE;
+        QueryStats.configure(settings);
+        ProductCatalog.configure(settings);
+        if (previous != null) {
+            previous.shutdown();
+        }
+        if (previousReplicas != null) {
+            previousReplicas.shutdown();
+        }
+        if (previousExecutor != null) {
+            previousExecutor.shutdown();
+        }
+    }
+
+    public static synchronized void shutdown() {
+        // Let queued async calls finish while their connections are still available
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdown();
+            asyncExecutor = null;
+        }
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+        if (replicas != null) {
+            replicas.shutdown();
+            replicas = null;
+        }
+        QueryStats.shutdown();
+    }
+
+    public static Map<String, Object> getPoolStats() {
+        ConnectionPool current = pool;
+        return current != null ? current.getStats() : Collections.emptyMap();
+    }
+
+    public static Map<String, Object> getReplicaStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("primaryReads", primaryReads.sum());
+        stats.put("replicaReads", replicaReads.sum());
+        stats.put("readYourWritesMillis", readYourWritesMillis);
+        ReplicaSet current = replicas;
+        stats.put("replicas", current != null ? current.getStats() : Collections.emptyList());
+        return stats;
+    }
+
+    // "replicaUrls" is a comma-separated list; "replica.*" settings override the primary's pool
+    // settings for the replica pools (a short connectionTimeoutMillis lets reads fall back quickly).
+    private static ReplicaSet createReplicas(Map<String, String> settings) {
+        String urls = settings.get("replicaUrls");
+        if (urls == null || urls.trim().isEmpty()) {
+            return null;
+        }
+        List<String> replicaUrls = new ArrayList<>();
+        for (String url : urls.split(",")) {
+            if (!url.trim().isEmpty()) {
+                replicaUrls.add(url.trim());
+            }
+        }
+        Map<String, String> replicaSettings = new HashMap<>(settings);
+        for (Map.Entry<String, String> setting : settings.entrySet()) {
+            if (setting.getKey().startsWith(REPLICA_PREFIX)) {
+                replicaSettings.put(setting.getKey().substring(REPLICA_PREFIX.length()), setting.getValue());
+            }
+        }
+        String user = replicaSettings.getOrDefault("username", USER);
+        String pass = replicaSettings.getOrDefault("password", PASS);
+        return replicaUrls.isEmpty() ? null : new ReplicaSet(replicaUrls, user, pass, replicaSettings);
+    }
+
+    // "asyncThreads" defaults to half the primary pool size, leaving the other half to request
+    // threads; "asyncVirtualThreads" needs Java 21.
+    private static DataStoreExecutor createExecutor(Map<String, String> settings, int poolSize) {
+        String threads = settings.get("asyncThreads");
+        String queueSize = settings.get("asyncQueueSize");
+        return new DataStoreExecutor(
+                threads != null ? Integer.parseInt(threads.trim()) : Math.max(1, poolSize / 2),
+                queueSize != null ? Integer.parseInt(queueSize.trim()) : 256,
+                Boolean.parseBoolean(settings.getOrDefault("asyncVirtualThreads", "false").trim()));
+    }
+
+    private static DataStoreExecutor asyncExecutor() throws SQLException {
+        DataStoreExecutor current = asyncExecutor;
+        if (current == null) {
+            int poolSize = pool().getMaxSize();
+            synchronized (MySQLDataStoreUtilities.class) {
+                if (asyncExecutor == null) {
+                    asyncExecutor = createExecutor(Collections.emptyMap(), poolSize);
+                }
+                current = asyncExecutor;
+            }
+        }
+        return current;
+    }
+
+    public static Map<String, Object> getAsyncStats() {
+        DataStoreExecutor current = asyncExecutor;
+        return current != null ? current.getStats() : Collections.emptyMap();
+    }
+
+    private static ConnectionPool createPool(Map<String, String> settings) throws SQLException {
         try {
             Class.forName(JDBC_DRIVER);
-            return DriverManager.getConnection(DB_URL, USER, PASS);
         } catch (ClassNotFoundException e) {
             throw new SQLException("JDBC Driver not found", e);
         }
+        String url = settings.getOrDefault("url", DB_URL);
+        String user = settings.getOrDefault("username", USER);
+        String pass = settings.getOrDefault("password", PASS);
+        return new ConnectionPool(url, user, pass, settings);
     }
 
     public static void close(Connection conn, Statement stmt, ResultSet rs) {
         try {
             if (rs != null) rs.close();
             if (stmt != null) stmt.close();
-            if (conn != null) conn.close();
+            // A connection bound to a unit of work is closed by inTransaction, not by the helper that used it.
+            if (conn != null && conn != CURRENT_TRANSACTION.get()) conn.close();
         } catch (SQLException se) {
             se.printStackTrace();
         }
     }
 
+    // Runs work on one connection inside one transaction. Every helper in this class called from
+    // within work (on the same thread) joins that transaction, so the whole unit commits with a
+    // single flush or rolls back together. Nested calls join the outer unit of work.
+    public static <T> T inTransaction(UnitOfWork<T> work) throws SQLException {
+        if (CURRENT_TRANSACTION.get() != null) {
+            return work.execute();
+        }
+
+        Connection conn = getConnection();
+        CURRENT_TRANSACTION.set(conn);
+        try {
+            conn.setAutoCommit(false);
+            T result = work.execute();
+            conn.commit();
+            return result;
+        } catch (SQLException | RuntimeException e) {
+            try {
+                conn.rollback();
+            } catch (SQLException rollbackException) {
+                e.addSuppressed(rollbackException);
+            }
+            throw e;
+        } finally {
+            CURRENT_TRANSACTION.remove();
+            conn.close();
+        }
+    }
+
+    // Marks the start of an HTTP request (see DataStoreRequestFilter). Reads stay on the primary
+    // for the whole request when the caller's last write was less than readYourWritesMillis ago,
+    // and from the first write onwards otherwise.
+    public static void beginRequest(long lastWriteMillis) {
+        RequestState state = new RequestState();
+        state.readPrimary = lastWriteMillis > 0 && System.currentTimeMillis() - lastWriteMillis < readYourWritesMillis;
+        CURRENT_REQUEST.set(state);
+    }
+
+    // Returns true when the request wrote to the primary.
+    public static boolean endRequest() {
+        RequestState state = CURRENT_REQUEST.get();
+        CURRENT_REQUEST.remove();
+        return state != null && state.wrote;
+    }
+
+    // Writes and everything inside a unit of work go to the primary.
+    private static Connection acquireConnection() throws SQLException {
+        markWrite();
+        Connection conn = CURRENT_TRANSACTION.get();
+        return conn != null ? conn : getConnection();
+    }
+
+    private static Connection readConnection() throws SQLException {
+        Connection conn = CURRENT_TRANSACTION.get();
+        return conn != null ? conn : getReadConnection();
+    }
+
+    // A connection for read-only queries: a healthy replica when one is configured and the current
+    // request has not written yet, the primary otherwise. The caller closes it.
+    public static Connection getReadConnection() throws SQLException {
+        ReplicaSet current = replicas;
+        RequestState state = CURRENT_REQUEST.get();
+        if (current != null && (state == null || !state.readPrimary)) {
+            Connection conn = current.getConnection();
+            if (conn != null) {
+                replicaReads.increment();
+                return conn;
+            }
+        }
+        primaryReads.increment();
+        return getConnection();
+    }
+
+    // The JDBC URL of the replica conn reads from, or null for the primary (or no connection).
+    static String serverOf(Connection conn) {
+        ConnectionPool primary = pool;
+        if (conn == null || replicas == null || primary == null) {
+            return null;
+        }
+        try {
+            String url = conn.getMetaData().getURL();
+            return url == null || url.equals(primary.getUrl()) ? null : url;
+        } catch (SQLException e) {
+            return null;
+        }
+    }
+
+    // A connection to the server serverOf named: the primary for null, otherwise that replica,
+    // or null when the replica is no longer available. The caller closes it.
+    static Connection getConnectionTo(String server) throws SQLException {
+        if (server == null) {
+            return getConnection();
+        }
+        ReplicaSet current = replicas;
+        return current != null ? current.getConnection(server) : null;
+    }
+
+    private static void markWrite() {
+        RequestState state = CURRENT_REQUEST.get();
+        if (state != null) {
+            state.readPrimary = true;
+            state.wrote = true;
+        }
+    }
+
+    // Shared with async calls started by the request, which may run on other threads.
+    private static class RequestState {
+        volatile boolean readPrimary;
+        volatile boolean wrote;
+    }
+
+    // Runs work on the data-store executor and completes with its result. The work sees the
+    // caller's read routing (so it still reads its own writes), but it cannot join the caller's
+    // unit of work because a JDBC connection must not be shared between threads.
+    public static <T> CompletableFuture<T> supplyAsync(UnitOfWork<T> work) {
+        if (CURRENT_TRANSACTION.get() != null) {
+            throw new IllegalStateException("Async data-store calls cannot join the current transaction");
+        }
+        RequestState state = CURRENT_REQUEST.get();
+        DataStoreExecutor executor;
+        try {
+            executor = asyncExecutor();
+        } catch (SQLException e) {
+            CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return executor.submit(() -> {
+            RequestState previous = CURRENT_REQUEST.get();
+            CURRENT_REQUEST.set(state);
+            try {
+                return work.execute();
+            } finally {
+                if (previous != null) {
+                    CURRENT_REQUEST.set(previous);
+                } else {
+                    CURRENT_REQUEST.remove();
+                }
+            }
+        });
+    }
+
+    public static CompletableFuture<List<Map<String, Object>>> getRecordsAsync(String tableName, List<String> columns, Where where) {
+        return supplyAsync(() -> getRecords(tableName, columns, where));
+    }
+
+    public static CompletableFuture<Integer> insertRecordAsync(String tableName, Map<String, Object> columnValues) {
+        return supplyAsync(() -> insertRecord(tableName, columnValues));
+    }
+
+    public static CompletableFuture<Integer> updateRecordAsync(String tableName, Map<String, Object> columnValues, Where where) {
+        return supplyAsync(() -> updateRecord(tableName, columnValues, where));
+    }
+
+    public static CompletableFuture<Integer> deleteRecordAsync(String tableName, Where where) {
+        return supplyAsync(() -> deleteRecord(tableName, where));
+    }
+
+    // Waits for an async call and rethrows its failure the way the synchronous API would.
+    public static <T> T await(CompletableFuture<T> future) throws SQLException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database call", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException && e.getCause().getCause() != null
+                    ? e.getCause().getCause() : e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new SQLException(cause);
+        }
+    }
+
     public static int insertRecord(String tableName, Map<String, Object> columnValues) throws SQLException {
         Connection conn = null;
         PreparedStatement pstmt = null;
         ResultSet rs = null;
         int generatedId = -1;
+        String sql = null;
+        List<Object> parameters = null;
+        long requested = System.nanoTime();
+        long started = requested;
+        boolean failed = true;
 
         try {
-            conn = getConnection();
-            StringBuilder sql = new StringBuilder("INSERT INTO " + tableName + " (");
-            StringBuilder placeholders = new StringBuilder();
-            List<Object> values = new ArrayList<>();
-
-            for (Map.Entry<String, Object> entry : columnValues.entrySet()) {
-                sql.append(entry.getKey()).append(",");
-                placeholders.append("?,");
-                values.add(entry.getValue());
-            }
-
-            sql.setLength(sql.length() - 1);  // Remove last comma
-            placeholders.setLength(placeholders.length() - 1);  // Remove last comma
-            sql.append(") VALUES (").append(placeholders).append(")");
+            conn = acquireConnection();
+            started = System.nanoTime();
+            List<String> columns = sortedColumns(columnValues);
+            sql = insertSql(tableName, columns);
+            parameters = columnValues(columnValues, columns);
 
-            pstmt = conn.prepareStatement(sql.toString(), Statement.RETURN_GENERATED_KEYS);
+            pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
 
-            for (int i = 0; i < values.size(); i++) {
-                pstmt.setObject(i + 1, values.get(i));
+            for (int i = 0; i < parameters.size(); i++) {
+                pstmt.setObject(i + 1, parameters.get(i));
             }
 
             pstmt.executeUpdate();
@@ -67,128 +427,516 @@ public class MySQLDataStoreUtilities {
             if (rs.next()) {
                 generatedId = rs.getInt(1);
             }
+            failed = false;
         } finally {
             close(conn, pstmt, rs);
+            QueryStats.record(sql, parameters, requested, started, failed ? 0 : 1, failed);
         }
 
         return generatedId;
     }
 
-    public static int updateRecord(String tableName, Map<String, Object> columnValues, String whereClause) throws SQLException {
+    // Inserts all rows in one transaction (the caller's, inside inTransaction) and returns their
+    // generated IDs in input order. Rows are grouped by column set and each group is sent as a
+    // single JDBC batch, which the driver rewrites into one multi-row INSERT.
+    public static int[] insertRecords(String tableName, List<Map<String, Object>> rows) throws SQLException {
+        int[] generatedIds = new int[rows.size()];
+        Arrays.fill(generatedIds, -1);
+        if (rows.isEmpty()) {
+            return generatedIds;
+        }
+
+        Map<List<String>, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < rows.size(); i++) {
+            groups.computeIfAbsent(sortedColumns(rows.get(i)), k -> new ArrayList<>()).add(i);
+        }
+
         Connection conn = null;
         PreparedStatement pstmt = null;
-        int rowsAffected = 0;
+        ResultSet rs = null;
+        boolean ownTransaction = false;
+        String sql = null;
+        List<Object> parameters = null;
+        long requested = System.nanoTime();
+        long started = requested;
+        int batchSize = 0;
 
         try {
-            conn = getConnection();
-            StringBuilder sql = new StringBuilder("UPDATE " + tableName + " SET ");
-            List<Object> values = new ArrayList<>();
+            conn = acquireConnection();
+            ownTransaction = conn.getAutoCommit();
+            if (ownTransaction) {
+                conn.setAutoCommit(false);
+            }
+
+            for (Map.Entry<List<String>, List<Integer>> group : groups.entrySet()) {
+                List<String> columns = group.getKey();
+                started = System.nanoTime();
+                sql = insertSql(tableName, columns);
+                // EXPLAIN of the first row stands in for the whole batch
+                parameters = columnValues(rows.get(group.getValue().get(0)), columns);
+                batchSize = group.getValue().size();
+                pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+
+                for (int index : group.getValue()) {
+                    Map<String, Object> row = rows.get(index);
+                    for (int i = 0; i < columns.size(); i++) {
+                        pstmt.setObject(i + 1, row.get(columns.get(i)));
+                    }
+                    pstmt.addBatch();
+                }
 
-            for (Map.Entry<String, Object> entry : columnValues.entrySet()) {
-                sql.append(entry.getKey()).append(" = ?,");
-                values.add(entry.getValue());
+                pstmt.executeBatch();
+
+                rs = pstmt.getGeneratedKeys();
+                Iterator<Integer> indexes = group.getValue().iterator();
+                while (rs.next() && indexes.hasNext()) {
+                    generatedIds[indexes.next()] = rs.getInt(1);
+                }
+                close(null, pstmt, rs);
+                QueryStats.record(sql, parameters, requested, started, batchSize, false);
+                pstmt = null;
+                rs = null;
+                sql = null;
+                requested = System.nanoTime();
             }
 
-            sql.setLength(sql.length() - 1);  // Remove last comma
-            sql.append(" WHERE ").append(whereClause);
+            if (ownTransaction) {
+                conn.commit();
+            }
+        } catch (SQLException e) {
+            QueryStats.record(sql, parameters, requested, started, 0, true);
+            if (ownTransaction) {
+                conn.rollback();
+            }
+            throw e;
+        } finally {
+            close(conn, pstmt, rs);
+        }
 
-            pstmt = conn.prepareStatement(sql.toString());
+        return generatedIds;
+    }
 
-            for (int i = 0; i < values.size(); i++) {
-                pstmt.setObject(i + 1, values.get(i));
+    public static int updateRecord(String tableName, Map<String, Object> columnValues, Where where) throws SQLException {
+        Connection conn = null;
+        PreparedStatement pstmt = null;
+        int rowsAffected = 0;
+        String sql = null;
+        List<Object> parameters = null;
+        long requested = System.nanoTime();
+        long started = requested;
+        boolean failed = true;
+
+        try {
+            conn = acquireConnection();
+            started = System.nanoTime();
+            List<String> columns = sortedColumns(columnValues);
+            sql = updateSql(tableName, columns) + " WHERE " + where.toSql();
+            parameters = columnValues(columnValues, columns);
+            parameters.addAll(where.getParameters());
+
+            pstmt = conn.prepareStatement(sql);
+
+            for (int i = 0; i < parameters.size(); i++) {
+                pstmt.setObject(i + 1, parameters.get(i));
             }
 
             rowsAffected = pstmt.executeUpdate();
+            failed = false;
         } finally {
             close(conn, pstmt, null);
+            QueryStats.record(sql, parameters, requested, started, rowsAffected, failed);
         }
 
         return rowsAffected;
     }
 
-    public static int deleteRecord(String tableName, String whereClause) throws SQLException {
+    public static Map<String, Object> getStatementCacheStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("sqlShapes", SQL_SHAPES.size());
+        stats.put("sqlShapeHits", sqlShapeHits.sum());
+        stats.put("sqlShapeMisses", sqlShapeMisses.sum());
+        ConnectionPool current = pool;
+        if (current != null) {
+            stats.putAll(current.getStatementCacheStats());
+        }
+        return stats;
+    }
+
+    // Columns are bound in sorted order so every map with the same key set, whatever its
+    // iteration order, produces the same SQL text and hits the same cached statement.
+    private static List<String> sortedColumns(Map<String, Object> columnValues) {
+        List<String> columns = new ArrayList<>(columnValues.keySet());
+        Collections.sort(columns);
+        return columns;
+    }
+
+    private static List<Object> columnValues(Map<String, Object> columnValues, List<String> columns) {
+        List<Object> values = new ArrayList<>(columns.size());
+        for (String column : columns) {
+            values.add(columnValues.get(column));
+        }
+        return values;
+    }
+
+    private static String insertSql(String tableName, List<String> columns) {
+        return sqlShape("INSERT", tableName, columns, () -> {
+            StringBuilder sql = new StringBuilder("INSERT INTO " + tableName + " (");
+            StringBuilder placeholders = new StringBuilder();
+            for (String column : columns) {
+                sql.append(column).append(",");
+                placeholders.append("?,");
+            }
+            sql.setLength(sql.length() - 1);  // Remove last comma
+            placeholders.setLength(placeholders.length() - 1);  // Remove last comma
+            sql.append(") VALUES (").append(placeholders).append(")");
+            return sql.toString();
+        });
+    }
+
+    private static String updateSql(String tableName, List<String> columns) {
+        return sqlShape("UPDATE", tableName, columns, () -> {
+            StringBuilder sql = new StringBuilder("UPDATE " + tableName + " SET ");
+            for (String column : columns) {
+                sql.append(column).append(" = ?,");
+            }
+            sql.setLength(sql.length() - 1);  // Remove last comma
+            return sql.toString();
+        });
+    }
+
+    private static String sqlShape(String operation, String tableName, List<String> columns, Supplier<String> builder) {
+        String key = operation + ":" + tableName + ":" + String.join(",", columns);
+        String sql = SQL_SHAPES.get(key);
+        if (sql != null) {
+            sqlShapeHits.increment();
+            return sql;
+        }
+        sqlShapeMisses.increment();
+        sql = builder.get();
+        // Column sets can come straight from request bodies, so stop caching new shapes past the cap.
+        if (SQL_SHAPES.size() < MAX_SQL_SHAPES) {
+            SQL_SHAPES.putIfAbsent(key, sql);
+        }
+        return sql;
+    }
+
+    public static int deleteRecord(String tableName, Where where) throws SQLException {
         Connection conn = null;
         PreparedStatement pstmt = null;
         int rowsAffected = 0;
+        String sql = null;
+        long requested = System.nanoTime();
+        long started = requested;
+        boolean failed = true;
 
         try {
-            conn = getConnection();
-            String sql = "DELETE FROM " + tableName + " WHERE " + whereClause;
+            conn = acquireConnection();
+            started = System.nanoTime();
+            sql = "DELETE FROM " + tableName + " WHERE " + where.toSql();
             pstmt = conn.prepareStatement(sql);
+            where.bind(pstmt, 1);
             rowsAffected = pstmt.executeUpdate();
+            failed = false;
         } finally {
             close(conn, pstmt, null);
+            QueryStats.record(sql, where.getParameters(), requested, started, rowsAffected, failed);
         }
 
         return rowsAffected;
     }
 
-    public static List<Map<String, Object>> getRecords(String tableName, String whereClause) throws SQLException {
+    // A null condition selects every row.
+    public static List<Map<String, Object>> getRecords(String tableName, Where where) throws SQLException {
+        return getRecords(tableName, null, where);
+    }
+
+    // Only the listed columns are selected; a null or empty list means every column.
+    public static List<Map<String, Object>> getRecords(String tableName, List<String> columns, Where where) throws SQLException {
         Connection conn = null;
         PreparedStatement pstmt = null;
         ResultSet rs = null;
         List<Map<String, Object>> records = new ArrayList<>();
+        String sql = null;
+        long requested = System.nanoTime();
+        long started = requested;
+        boolean failed = true;
 
         try {
-            conn = getConnection();
-            String sql = "SELECT * FROM " + tableName;
-            if (whereClause != null && !whereClause.isEmpty()) {
-                sql += " WHERE " + whereClause;
-            }
+            conn = readConnection();
+            started = System.nanoTime();
+            sql = selectSql(tableName, columns, where);
             pstmt = conn.prepareStatement(sql);
+            if (where != null) {
+                where.bind(pstmt, 1);
+            }
             rs = pstmt.executeQuery();
 
-            ResultSetMetaData metaData = rs.getMetaData();
-            int columnCount = metaData.getColumnCount();
+            RecordRow.Schema schema = RecordRow.Schema.of(rs.getMetaData());
 
             while (rs.next()) {
-                Map<String, Object> row = new HashMap<>();
-                for (int i = 1; i <= columnCount; i++) {
-                    String columnName = metaData.getColumnName(i);
-                    Object value = rs.getObject(i);
-                    row.put(columnName, value);
-                }
-                records.add(row);
+                records.add(RecordRow.read(schema, rs));
             }
+            failed = false;
         } finally {
+            String server = serverOf(conn);
             close(conn, pstmt, rs);
+            QueryStats.record(sql, where != null ? where.getParameters() : null, requested, started, records.size(), failed, server);
         }
 
         return records;
     }
 
-    public static void loadProductsFromXML(String xmlFilePath) throws Exception {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        Document doc = builder.parse(xmlFilePath);
-        doc.getDocumentElement().normalize();
-
-        NodeList productList = doc.getElementsByTagName("Product");
-
-        for (int i = 0; i < productList.getLength(); i++) {
-            Element product = (Element) productList.item(i);
-            String modelName = product.getElementsByTagName("ProductModelName").item(0).getTextContent();
-            String category = product.getElementsByTagName("ProductCategory").item(0).getTextContent();
-            double price = Double.parseDouble(product.getElementsByTagName("ProductPrice").item(0).getTextContent());
-            boolean onSale = Boolean.parseBoolean(product.getElementsByTagName("ProductOnSale").item(0).getTextContent());
-            String manufacturerName = product.getElementsByTagName("ManufacturerName").item(0).getTextContent();
-            boolean manufacturerRebate = Boolean.parseBoolean(product.getElementsByTagName("ManufacturerRebate").item(0).getTextContent());
-            int inventory = Integer.parseInt(product.getElementsByTagName("Inventory").item(0).getTextContent());
-            String image = product.getElementsByTagName("ProductImage").item(0).getTextContent();
-            String description = product.getElementsByTagName("ProductDescription").item(0).getTextContent();
-
-            Map<String, Object> columnValues = new HashMap<>();
-            columnValues.put("ProductModelName", modelName);
-            columnValues.put("ProductCategory", category);
-            columnValues.put("ProductPrice", price);
-            columnValues.put("ProductOnSale", onSale);
-            columnValues.put("ManufacturerName", manufacturerName);
-            columnValues.put("ManufacturerRebate", manufacturerRebate);
-            columnValues.put("Inventory", inventory);
-            columnValues.put("ProductImage", image);
-            columnValues.put("ProductDescription", description);
-
-            insertRecord("Products", columnValues); // Insert each product into the database
+    // Forward-only read that hands each row to the handler as it arrives. The driver pulls
+    // streamFetchSize rows per round trip from a server-side cursor, so heap use stays flat
+    // however large the table is. Returns the number of rows handled.
+    public static int streamRecords(String tableName, Where where, RowHandler handler) throws SQLException, IOException {
+        return streamRecords(tableName, null, where, handler);
+    }
+
+    public static int streamRecords(String tableName, List<String> columns, Where where, RowHandler handler) throws SQLException, IOException {
+        Connection conn = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        int rowCount = 0;
+        String sql = null;
+        long requested = System.nanoTime();
+        long started = requested;
+        boolean failed = true;
+
+        try {
+            conn = readConnection();
+            started = System.nanoTime();
+            sql = selectSql(tableName, columns, where);
+            pstmt = conn.prepareStatement(sql);
+            if (where != null) {
+                where.bind(pstmt, 1);
+            }
+            // Without cursor fetch the driver only streams when asked for rows one at a time.
+            ConnectionPool current = pool;
+            pstmt.setFetchSize(current == null || current.usesCursorFetch() ? streamFetchSize : Integer.MIN_VALUE);
+            rs = pstmt.executeQuery();
+
+            RecordRow.Schema schema = RecordRow.Schema.of(rs.getMetaData());
+
+            while (rs.next()) {
+                handler.handle(RecordRow.read(schema, rs));
+                rowCount++;
+            }
+            failed = false;
+        } finally {
+            String server = serverOf(conn);
+            close(conn, pstmt, rs);
+            // Includes the time the handler spent writing rows out
+            QueryStats.record(sql, where != null ? where.getParameters() : null, requested, started, rowCount, failed, server);
+        }
+
+        return rowCount;
+    }
+
+    // Parses a "?fields=a,b,c" style column list. Returns null when no fields were asked for.
+    public static List<String> parseColumns(String fields) {
+        if (fields == null || fields.trim().isEmpty()) {
+            return null;
+        }
+        List<String> columns = new ArrayList<>();
+        for (String field : fields.split(",")) {
+            String column = field.trim();
+            if (column.isEmpty() || columns.contains(column)) {
+                continue;
+            }
+            if (!IDENTIFIER.matcher(column).matches()) {
+                throw new IllegalArgumentException("Invalid field: " + column);
+            }
+            columns.add(column);
+        }
+        return columns.isEmpty() ? null : columns;
+    }
+
+    // parseColumns, then checks every field against the table's columns, so a misspelt
+    // ?fields= is rejected as the caller's mistake (IllegalArgumentException) instead of failing
+    // in MySQL. Fields come back spelled as the table spells them.
+    public static List<String> parseColumns(String tableName, String fields) throws SQLException {
+        List<String> columns = parseColumns(fields);
+        if (columns == null) {
+            return null;
+        }
+        Map<String, String> known = tableColumns(tableName);
+        List<String> resolved = new ArrayList<>(columns.size());
+        for (String column : columns) {
+            String name = known.get(column.toLowerCase(Locale.ROOT));
+            if (name == null) {
+                throw new IllegalArgumentException("Unknown field: " + column);
+            }
+            if (!resolved.contains(name)) {
+                resolved.add(name);
+            }
+        }
+        return resolved;
+    }
+
+    private static Map<String, String> tableColumns(String tableName) throws SQLException {
+        Map<String, String> columns = TABLE_COLUMNS.get(tableName);
+        if (columns != null) {
+            return columns;
+        }
+        columns = new HashMap<>();
+        Connection conn = null;
+        ResultSet rs = null;
+        try {
+            conn = getConnection();
+            rs = conn.getMetaData().getColumns(conn.getCatalog(), null, tableName, null);
+            while (rs.next()) {
+                String name = rs.getString("COLUMN_NAME");
+                columns.put(name.toLowerCase(Locale.ROOT), name);
+            }
+        } finally {
+            close(conn, null, rs);
+        }
+        if (columns.isEmpty()) {
+            throw new SQLException("Table " + tableName + " has no columns");
+        }
+        TABLE_COLUMNS.put(tableName, columns);
+        return columns;
+    }
+
+    private static String selectSql(String tableName, List<String> columns, Where where) {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        if (columns == null || columns.isEmpty()) {
+            sql.append("*");
+        } else {
+            for (String column : columns) {
+                if (!IDENTIFIER.matcher(column).matches()) {
+                    throw new IllegalArgumentException("Invalid column name: " + column);
+                }
+                sql.append(column).append(", ");
+            }
+            sql.setLength(sql.length() - 2);  // Remove last separator
+        }
+        sql.append(" FROM ").append(tableName);
+        if (where != null) {
+            sql.append(" WHERE ").append(where.toSql());
+        }
+        return sql.toString();
+    }
+
+    // Streams the catalog with StAX (one product in memory at a time) and upserts it in JDBC
+    // batches of catalogBatchSize rows, all in one transaction. A <ProductID> element, when
+    // present, updates that product in place; otherwise the unique ProductModelName key decides
+    // whether a product is new. Returns row count, batch count, elapsed time and rows/second.
+    public static Map<String, Object> loadProductsFromXML(String xmlFilePath) throws Exception {
+        long start = System.nanoTime();
+        int[] counts = inTransaction(() -> {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(xmlFilePath))) {
+                return upsertCatalog(in);
+            } catch (IOException | XMLStreamException e) {
+                throw new SQLException("Could not read product catalog " + xmlFilePath, e);
+            }
+        });
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("rows", counts[0]);
+        result.put("batches", counts[1]);
+        result.put("millis", seconds * 1000);
+        result.put("rowsPerSecond", seconds > 0 ? counts[0] / seconds : 0.0);
+        System.out.println("Loaded product catalog " + xmlFilePath + ": " + result);
+        ProductCatalog.invalidate();
+        return result;
+    }
+
+    private static int[] upsertCatalog(InputStream in) throws SQLException, XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        XMLStreamReader reader = factory.createXMLStreamReader(in);
+
+        Connection conn = null;
+        PreparedStatement pstmt = null;
+        int rows = 0;
+        int batches = 0;
+        int pending = 0;
+        long started = System.nanoTime();
+        Object[] product = null;
+
+        try {
+            conn = acquireConnection();
+            pstmt = conn.prepareStatement(CATALOG_UPSERT_SQL);
+
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if ("Product".equals(name)) {
+                        product = new Object[CATALOG_COLUMNS.size()];
+                    } else if (product != null) {
+                        int column = CATALOG_COLUMNS.indexOf(name);
+                        if (column >= 0) {
+                            product[column] = catalogValue(name, reader.getElementText().trim());
+                        }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && product != null && "Product".equals(reader.getLocalName())) {
+                    for (int i = 0; i < product.length; i++) {
+                        pstmt.setObject(i + 1, product[i]);
+                    }
+                    pstmt.addBatch();
+                    product = null;
+                    rows++;
+                    if (++pending == catalogBatchSize) {
+                        pstmt.executeBatch();
+                        QueryStats.record(CATALOG_UPSERT_SQL, null, started, started, pending, false);
+                        batches++;
+                        pending = 0;
+                        started = System.nanoTime();
+                    }
+                }
+            }
+            if (pending > 0) {
+                pstmt.executeBatch();
+                QueryStats.record(CATALOG_UPSERT_SQL, null, started, started, pending, false);
+                batches++;
+            }
+        } finally {
+            reader.close();
+            close(conn, pstmt, null);
+        }
+
+        return new int[] {rows, batches};
+    }
+
+    private static Object catalogValue(String column, String text) {
+        if (text.isEmpty()) {
+            return null;
+        }
+        switch (column) {
+            case "ProductID":
+            case "Inventory":
+                return Integer.valueOf(text);
+            case "ProductPrice":
+                return new java.math.BigDecimal(text);
+            case "ProductOnSale":
+            case "ManufacturerRebate":
+                // The catalog uses 1/0; accept true/false as well
+                return "1".equals(text) || "true".equalsIgnoreCase(text);
+            default:
+                return text;
+        }
+    }
+
+    private static String catalogUpsertSql() {
+        StringBuilder sql = new StringBuilder("INSERT INTO Products (");
+        StringBuilder placeholders = new StringBuilder();
+        StringBuilder updates = new StringBuilder();
+        for (String column : CATALOG_COLUMNS) {
+            sql.append(column).append(",");
+            placeholders.append("?,");
+            if (!"ProductID".equals(column)) {
+                updates.append(column).append(" = VALUES(").append(column).append("),");
+            }
         }
+        sql.setLength(sql.length() - 1);  // Remove last comma
+        placeholders.setLength(placeholders.length() - 1);  // Remove last comma
+        updates.setLength(updates.length() - 1);  // Remove last comma
+        return sql + ") VALUES (" + placeholders + ") ON DUPLICATE KEY UPDATE " + updates;
     }
 }
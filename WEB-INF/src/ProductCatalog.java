@@ -0,0 +1,325 @@
+package utilities;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// The Products table and its accessories, held in memory as an immutable snapshot indexed by
+// ProductID, category and manufacturer. Reads never touch MySQL while the snapshot is warm;
+// product writes patch it through refreshProduct, which builds a new snapshot with that one
+// product re-read and swaps it in. Other webapp instances only see a write once their own
+// snapshot expires (mysql.catalogCacheMillis), and the expired snapshot keeps being served
+// while one thread reloads it.
+//
+// Callers get copies of the cached rows, so they can add keys such as RatingAvg freely.
+// A listing with ratings costs one MongoDB lookup however many products it holds.
+//
+// Every snapshot carries a version and the time its contents last changed, which the product
+// servlets turn into ETag and Last-Modified headers. A reload that finds the same rows keeps
+// both, so clients only download the catalog again when it really changed.
+public class ProductCatalog {
+    private static final long DEFAULT_MAX_AGE_MILLIS = 300000;
+
+    private static final ReentrantLock writeLock = new ReentrantLock();
+    private static final AtomicLong versions = new AtomicLong();
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder patches = new LongAdder();
+    private static final LongAdder invalidations = new LongAdder();
+
+    private static volatile Snapshot snapshot;
+    private static volatile long maxAgeMillis = DEFAULT_MAX_AGE_MILLIS;
+    // Latest productRatingSummary updatedAt, and when it was read
+    private static volatile long ratingsModifiedMillis;
+    private static volatile long ratingsCheckedMillis;
+
+    // Called from MySQLDataStoreUtilities.configure; catalogCacheMillis = 0 never expires the snapshot.
+    public static void configure(Map<String, String> settings) {
+        String maxAge = settings.get("catalogCacheMillis");
+        maxAgeMillis = maxAge != null ? Long.parseLong(maxAge.trim()) : DEFAULT_MAX_AGE_MILLIS;
+    }
+
+    public static List<Map<String, Object>> listProducts(String category) throws SQLException {
+        Snapshot current = snapshot();
+        List<Map<String, Object>> rows = category != null && !category.isEmpty()
+                ? current.byCategory.getOrDefault(key(category), Collections.emptyList())
+                : current.products;
+        List<Map<String, Object>> products = copies(rows);
+        attachDetails(current, products);
+        return products;
+    }
+
+    // Returns the product with its accessories, or null when there is no such product.
+    public static Map<String, Object> getProduct(int productId) throws SQLException {
+        Snapshot current = snapshot();
+        Map<String, Object> row = current.byId.get(productId);
+        if (row == null) {
+            return null;
+        }
+        Map<String, Object> product = new LinkedHashMap<>(row);
+        product.put("Accessories", new ArrayList<>(current.accessories.getOrDefault(productId, Collections.emptyList())));
+        return product;
+    }
+
+    // The plain Products row, or null when there is no such product.
+    public static Map<String, Object> findProduct(int productId) throws SQLException {
+        Map<String, Object> row = snapshot().byId.get(productId);
+        return row != null ? new LinkedHashMap<>(row) : null;
+    }
+
+    public static List<Map<String, Object>> getProducts() throws SQLException {
+        return copies(snapshot().products);
+    }
+
+    public static List<Map<String, Object>> getProductsByManufacturer(String manufacturer) throws SQLException {
+        return copies(snapshot().byManufacturer.getOrDefault(key(manufacturer), Collections.emptyList()));
+    }
+
+    // Up to limit products whose model name contains the text, ignoring case (the same matches
+    // as ProductModelName LIKE '%text%' under the table's case-insensitive collation).
+    public static List<Map<String, Object>> searchByName(String text, int limit) throws SQLException {
+        String needle = key(text);
+        List<Map<String, Object>> matches = new ArrayList<>();
+        for (Map<String, Object> row : snapshot().products) {
+            Object name = row.get("ProductModelName");
+            if (name != null && key(name.toString()).contains(needle)) {
+                matches.add(new LinkedHashMap<>(row));
+                if (matches.size() == limit) {
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+
+    // Re-reads one product (and its accessories) after it was inserted, updated or deleted and
+    // swaps in a snapshot with that product patched. Does nothing until a snapshot is loaded.
+    // The write itself has already succeeded, so if the re-read fails the snapshot is dropped
+    // (the next read reloads it) rather than the error reaching the caller.
+    public static void refreshProduct(int productId) {
+        writeLock.lock();
+        try {
+            Snapshot current = snapshot;
+            if (current == null) {
+                return;
+            }
+            List<Map<String, Object>> rows = MySQLDataStoreUtilities.getRecords("Products", Where.eq("ProductID", productId));
+            List<Map<String, Object>> accessories = rows.isEmpty() ? Collections.emptyList()
+                    : MySQLDataStoreUtilities.getRecords("ProductAccessories", Where.eq("ProductID", productId));
+            snapshot = current.patch(productId, rows.isEmpty() ? null : rows.get(0), accessories, versions.incrementAndGet());
+            patches.increment();
+        } catch (SQLException e) {
+            System.err.println("Could not refresh product " + productId + " in the catalog cache: " + e.getMessage());
+            snapshot = null;
+            invalidations.increment();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Drops the snapshot so the next read loads the catalog again, for bulk changes such as the XML import.
+    public static void invalidate() {
+        writeLock.lock();
+        try {
+            snapshot = null;
+            invalidations.increment();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Read these before the data they describe: a write landing in between then makes the
+    // validators older than the response, and the next revalidation downloads it again.
+    public static long getVersion() throws SQLException {
+        return snapshot().version;
+    }
+
+    public static long getModifiedMillis() throws SQLException {
+        return snapshot().modifiedMillis;
+    }
+
+    // When the ratings attached by listProducts last changed, for the listing's validators. Read
+    // from MongoDB as often as the snapshot expires, and again after every rating write from this
+    // webapp, so writes from other instances show up as quickly as catalog changes do.
+    public static long getRatingsModifiedMillis() {
+        long now = System.currentTimeMillis();
+        long checked = ratingsCheckedMillis;
+        if (checked == 0 || (maxAgeMillis > 0 && now - checked >= maxAgeMillis)
+                || MongoDBDataStoreUtilities.getLastRatingSummaryWriteMillis() >= checked) {
+            // Stamped before the read, so a write finishing during it triggers another read
+            ratingsModifiedMillis = MongoDBDataStoreUtilities.getRatingSummariesUpdatedMillis();
+            ratingsCheckedMillis = now;
+        }
+        return ratingsModifiedMillis;
+    }
+
+    public static Map<String, Object> getStats() {
+        Snapshot current = snapshot;
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("warm", current != null);
+        stats.put("products", current != null ? current.products.size() : 0);
+        stats.put("version", current != null ? current.version : 0);
+        stats.put("modifiedMillis", current != null ? current.modifiedMillis : 0);
+        stats.put("ratingsModifiedMillis", ratingsModifiedMillis);
+        stats.put("snapshotAgeMillis", current != null ? System.currentTimeMillis() - current.loadedMillis : 0);
+        stats.put("maxAgeMillis", maxAgeMillis);
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRatio", hitCount + missCount > 0 ? (double) hitCount / (hitCount + missCount) : 0.0);
+        stats.put("patches", patches.sum());
+        stats.put("invalidations", invalidations.sum());
+        return stats;
+    }
+
+    private static Snapshot snapshot() throws SQLException {
+        Snapshot current = snapshot;
+        boolean expired = current != null && maxAgeMillis > 0 && System.currentTimeMillis() - current.loadedMillis >= maxAgeMillis;
+        if (current != null && (!expired || !writeLock.tryLock())) {
+            // Fresh, or another thread is already reloading and the old snapshot will do meanwhile
+            hits.increment();
+            return current;
+        }
+        if (current == null) {
+            writeLock.lock();
+        }
+        try {
+            Snapshot latest = snapshot;
+            if (latest != null && latest != current) {
+                hits.increment();
+                return latest;
+            }
+            misses.increment();
+            try {
+                snapshot = load(current);
+            } catch (SQLException e) {
+                if (current == null) {
+                    throw e;
+                }
+                System.err.println("Could not reload the product catalog, serving the previous snapshot: " + e.getMessage());
+                return current;
+            }
+            return snapshot;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private static Snapshot load(Snapshot previous) throws SQLException {
+        List<Map<String, Object>> products = MySQLDataStoreUtilities.getRecords("Products", null);
+        Map<Integer, List<Map<String, Object>>> accessories = new HashMap<>();
+        for (Map<String, Object> accessory : MySQLDataStoreUtilities.getRecords("ProductAccessories", null)) {
+            Object productId = accessory.get("ProductID");
+            if (productId instanceof Number) {
+                accessories.computeIfAbsent(((Number) productId).intValue(), k -> new ArrayList<>())
+                        .add(Collections.unmodifiableMap(new LinkedHashMap<>(accessory)));
+            }
+        }
+        Snapshot loaded = new Snapshot(products, accessories, versions.incrementAndGet());
+        return previous != null && loaded.sameContents(previous) ? loaded.unchangedSince(previous) : loaded;
+    }
+
+    // Adds Accessories, RatingAvg and TotalRatings to every product.
+    private static void attachDetails(Snapshot current, List<Map<String, Object>> products) {
+        if (products.isEmpty()) {
+            return;
+        }
+        List<String> productKeys = new ArrayList<>();
+        for (Map<String, Object> product : products) {
+            productKeys.add(product.get("ProductID").toString());
+        }
+
+        Map<String, MongoDBDataStoreUtilities.RatingSummary> ratings = MongoDBDataStoreUtilities.getRatingSummaries(productKeys);
+
+        for (Map<String, Object> product : products) {
+            int productId = ((Number) product.get("ProductID")).intValue();
+            MongoDBDataStoreUtilities.RatingSummary rating = ratings.getOrDefault(String.valueOf(productId), MongoDBDataStoreUtilities.RatingSummary.NONE);
+            product.put("RatingAvg", rating.getAverage());
+            product.put("TotalRatings", rating.getCount());
+            product.put("Accessories", new ArrayList<>(current.accessories.getOrDefault(productId, Collections.emptyList())));
+        }
+    }
+
+    private static List<Map<String, Object>> copies(List<Map<String, Object>> rows) {
+        List<Map<String, Object>> copies = new ArrayList<>(rows.size());
+        for (Map<String, Object> row : rows) {
+            copies.add(new LinkedHashMap<>(row));
+        }
+        return copies;
+    }
+
+    // Categories and manufacturers match ignoring case, as they do in MySQL.
+    private static String key(String value) {
+        return value != null ? value.toLowerCase(Locale.ROOT) : "";
+    }
+
+    private static final class Snapshot {
+        final long version;
+        final long loadedMillis;
+        final long modifiedMillis;
+        final List<Map<String, Object>> products;
+        final Map<Integer, Map<String, Object>> byId = new HashMap<>();
+        final Map<String, List<Map<String, Object>>> byCategory = new HashMap<>();
+        final Map<String, List<Map<String, Object>>> byManufacturer = new HashMap<>();
+        final Map<Integer, List<Map<String, Object>>> accessories;
+
+        Snapshot(List<Map<String, Object>> rows, Map<Integer, List<Map<String, Object>>> accessories, long version) {
+            this(rows, accessories, version, System.currentTimeMillis(), System.currentTimeMillis());
+        }
+
+        private Snapshot(List<Map<String, Object>> rows, Map<Integer, List<Map<String, Object>>> accessories, long version,
+                long loadedMillis, long modifiedMillis) {
+            this.version = version;
+            this.loadedMillis = loadedMillis;
+            this.modifiedMillis = modifiedMillis;
+            this.accessories = accessories;
+            List<Map<String, Object>> products = new ArrayList<>(rows.size());
+            for (Map<String, Object> row : rows) {
+                products.add(Collections.unmodifiableMap(new LinkedHashMap<>(row)));
+            }
+            products.sort(Comparator.comparingInt(row -> ((Number) row.get("ProductID")).intValue()));
+            this.products = Collections.unmodifiableList(products);
+            for (Map<String, Object> product : this.products) {
+                byId.put(((Number) product.get("ProductID")).intValue(), product);
+                byCategory.computeIfAbsent(key((String) product.get("ProductCategory")), k -> new ArrayList<>()).add(product);
+                byManufacturer.computeIfAbsent(key((String) product.get("ManufacturerName")), k -> new ArrayList<>()).add(product);
+            }
+        }
+
+        boolean sameContents(Snapshot other) {
+            return products.equals(other.products) && accessories.equals(other.accessories);
+        }
+
+        // This snapshot under the previous one's version and modification time.
+        Snapshot unchangedSince(Snapshot previous) {
+            return new Snapshot(products, accessories, previous.version, loadedMillis, previous.modifiedMillis);
+        }
+
+        // A copy with one product replaced, added or (row == null) removed. The load time is
+        // kept, so patching does not postpone the next full reload.
+        Snapshot patch(int productId, Map<String, Object> row, List<Map<String, Object>> productAccessories, long version) {
+            List<Map<String, Object>> rows = new ArrayList<>(products.size() + 1);
+            for (Map<String, Object> product : products) {
+                if (((Number) product.get("ProductID")).intValue() != productId) {
+                    rows.add(product);
+                }
+            }
+            Map<Integer, List<Map<String, Object>>> patchedAccessories = new HashMap<>(accessories);
+            patchedAccessories.remove(productId);
+            if (row != null) {
+                rows.add(row);
+                List<Map<String, Object>> immutable = new ArrayList<>();
+                for (Map<String, Object> accessory : productAccessories) {
+                    immutable.add(Collections.unmodifiableMap(new LinkedHashMap<>(accessory)));
+                }
+                if (!immutable.isEmpty()) {
+                    patchedAccessories.put(productId, immutable);
+                }
+            }
+            return new Snapshot(rows, patchedAccessories, version, loadedMillis, System.currentTimeMillis());
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package utilities;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Latency, row and connection-wait statistics per SQL shape (the statement text with its ?
+// placeholders), plus a log of the most recent slow queries. The first time a shape crosses
+// the slow threshold in a while, its EXPLAIN plan is captured on a background thread so the
+// request that ran it does not wait for it. Reads may run on a replica, whose statistics and
+// schema can differ from the primary's, so the plan comes from the server that ran the query.
+public class QueryStats {
+    private static final int MAX_SHAPES = 512;
+    private static final String OTHER_SHAPE = "(other)";
+    private static final int MAX_SLOW_QUERIES = 50;
+    private static final long EXPLAIN_INTERVAL_MILLIS = 60000;
+    private static final long DEFAULT_SLOW_QUERY_MILLIS = 500;
+    // Upper bounds of the latency buckets in milliseconds; the last bucket is unbounded.
+    private static final long[] BUCKET_MILLIS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    private static final Map<String, ShapeStats> SHAPES = new ConcurrentHashMap<>();
+    private static final Deque<Map<String, Object>> SLOW_QUERIES = new ArrayDeque<>();
+    private static final ExecutorService EXPLAINER = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(16), r -> {
+                Thread t = new Thread(r, "mysql-slow-query-explain");
+                t.setDaemon(true);
+                return t;
+            }, new ThreadPoolExecutor.DiscardPolicy());
+
+    private static volatile long slowQueryNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLOW_QUERY_MILLIS);
+
+    public static void configure(Map<String, String> settings) {
+        String threshold = settings.get("slowQueryMillis");
+        long millis = threshold != null ? Long.parseLong(threshold.trim()) : DEFAULT_SLOW_QUERY_MILLIS;
+        slowQueryNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    // requestedNanos is when the caller asked for a connection and startedNanos when it had one,
+    // both from System.nanoTime(). Parameters are only kept long enough to run EXPLAIN.
+    public static void record(String sql, List<Object> parameters, long requestedNanos, long startedNanos, long rows, boolean failed) {
+        record(sql, parameters, requestedNanos, startedNanos, rows, failed, null);
+    }
+
+    // server is the JDBC URL of the replica that ran the statement, null for the primary.
+    public static void record(String sql, List<Object> parameters, long requestedNanos, long startedNanos, long rows, boolean failed,
+            String server) {
+        if (sql == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        long elapsed = now - startedNanos;
+        ShapeStats stats = SHAPES.get(sql);
+        if (stats == null) {
+            String key = SHAPES.size() < MAX_SHAPES ? sql : OTHER_SHAPE;
+            stats = SHAPES.computeIfAbsent(key, k -> new ShapeStats());
+        }
+        stats.add(elapsed, startedNanos - requestedNanos, rows, failed);
+
+        if (elapsed >= slowQueryNanos) {
+            recordSlowQuery(sql, parameters, elapsed, rows, server, stats);
+        }
+    }
+
+    public static List<Map<String, Object>> getStats() {
+        List<Map.Entry<String, ShapeStats>> shapes = new ArrayList<>(SHAPES.entrySet());
+        // Shapes that cost the most overall come first
+        shapes.sort((a, b) -> Long.compare(b.getValue().totalNanos.sum(), a.getValue().totalNanos.sum()));
+        List<Map<String, Object>> stats = new ArrayList<>();
+        for (Map.Entry<String, ShapeStats> shape : shapes) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("sql", shape.getKey());
+            shape.getValue().describe(entry);
+            stats.add(entry);
+        }
+        return stats;
+    }
+
+    public static List<Map<String, Object>> getSlowQueries() {
+        // Entries are copied because the EXPLAIN thread may still be filling them in
+        List<Map<String, Object>> copy = new ArrayList<>();
+        synchronized (SLOW_QUERIES) {
+            for (Map<String, Object> entry : SLOW_QUERIES) {
+                copy.add(new LinkedHashMap<>(entry));
+            }
+        }
+        return copy;
+    }
+
+    public static void shutdown() {
+        EXPLAINER.shutdownNow();
+    }
+
+    private static void recordSlowQuery(String sql, List<Object> parameters, long elapsed, long rows, String server, ShapeStats stats) {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("sql", sql);
+        entry.put("server", server != null ? server : "primary");
+        entry.put("millis", elapsed / 1000000.0);
+        entry.put("rows", rows);
+        entry.put("timestamp", System.currentTimeMillis());
+        synchronized (SLOW_QUERIES) {
+            SLOW_QUERIES.addFirst(entry);
+            while (SLOW_QUERIES.size() > MAX_SLOW_QUERIES) {
+                SLOW_QUERIES.removeLast();
+            }
+        }
+        System.err.println("Slow query (" + entry.get("millis") + " ms, " + rows + " rows, " + entry.get("server") + "): " + sql);
+
+        long now = System.currentTimeMillis();
+        long lastExplained = stats.lastExplainMillis.get();
+        if (now - lastExplained >= EXPLAIN_INTERVAL_MILLIS && stats.lastExplainMillis.compareAndSet(lastExplained, now)) {
+            List<Object> bound = parameters != null ? new ArrayList<>(parameters) : Collections.emptyList();
+            EXPLAINER.execute(() -> {
+                List<Map<String, Object>> plan = explain(sql, bound, server);
+                synchronized (SLOW_QUERIES) {
+                    entry.put("explain", plan);
+                    entry.put("explainServer", entry.get("server"));
+                    stats.lastExplain = plan;
+                    stats.lastExplainServer = entry.get("server");
+                }
+            });
+        } else {
+            synchronized (SLOW_QUERIES) {
+                entry.put("explain", stats.lastExplain);
+                // The cached plan may come from a different server than this run
+                entry.put("explainServer", stats.lastExplainServer);
+            }
+        }
+    }
+
+    // Explains on the server that ran the statement; when that replica is gone there is no plan.
+    private static List<Map<String, Object>> explain(String sql, List<Object> parameters, String server) {
+        List<Map<String, Object>> plan = new ArrayList<>();
+        try (Connection conn = MySQLDataStoreUtilities.getConnectionTo(server)) {
+            if (conn == null) {
+                plan.add(Collections.singletonMap("error", "Replica " + server + " is not available to explain the query"));
+                return plan;
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement("EXPLAIN " + sql)) {
+                for (int i = 0; i < parameters.size(); i++) {
+                    pstmt.setObject(i + 1, parameters.get(i));
+                }
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    ResultSetMetaData metaData = rs.getMetaData();
+                    while (rs.next()) {
+                        Map<String, Object> row = new LinkedHashMap<>();
+                        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                            row.put(metaData.getColumnLabel(i), rs.getObject(i));
+                        }
+                        plan.add(row);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            plan.add(Collections.singletonMap("error", e.getMessage()));
+        }
+        return plan;
+    }
+
+    private static class ShapeStats {
+        final LongAdder count = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder rows = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final LongAdder waitNanos = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+        final LongAdder[] buckets = new LongAdder[BUCKET_MILLIS.length + 1];
+        final AtomicLong lastExplainMillis = new AtomicLong();
+        List<Map<String, Object>> lastExplain;
+        Object lastExplainServer;
+
+        ShapeStats() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void add(long elapsedNanos, long connectionWaitNanos, long rowCount, boolean failed) {
+            count.increment();
+            if (failed) {
+                errors.increment();
+            }
+            rows.add(rowCount);
+            totalNanos.add(elapsedNanos);
+            waitNanos.add(connectionWaitNanos);
+            maxNanos.accumulateAndGet(elapsedNanos, Math::max);
+            double millis = elapsedNanos / 1000000.0;
+            int bucket = 0;
+            while (bucket < BUCKET_MILLIS.length && millis > BUCKET_MILLIS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket].increment();
+        }
+
+        void describe(Map<String, Object> entry) {
+            long calls = count.sum();
+            long[] counts = new long[buckets.length];
+            Map<String, Long> histogram = new LinkedHashMap<>();
+            for (int i = 0; i < buckets.length; i++) {
+                counts[i] = buckets[i].sum();
+                histogram.put(i < BUCKET_MILLIS.length ? "le" + BUCKET_MILLIS[i] : "inf", counts[i]);
+            }
+            entry.put("count", calls);
+            entry.put("errors", errors.sum());
+            entry.put("rows", rows.sum());
+            entry.put("totalMillis", totalNanos.sum() / 1000000.0);
+            entry.put("avgMillis", calls > 0 ? totalNanos.sum() / 1000000.0 / calls : 0.0);
+            entry.put("maxMillis", maxNanos.get() / 1000000.0);
+            entry.put("p50Millis", percentile(counts, 0.50));
+            entry.put("p95Millis", percentile(counts, 0.95));
+            entry.put("p99Millis", percentile(counts, 0.99));
+            entry.put("avgConnectionWaitMillis", calls > 0 ? waitNanos.sum() / 1000000.0 / calls : 0.0);
+            entry.put("histogram", histogram);
+        }
+
+        // Upper bound of the bucket holding the given fraction of calls; the open-ended bucket reports the max.
+        private double percentile(long[] counts, double fraction) {
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            if (total == 0) {
+                return 0.0;
+            }
+            long target = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return i < BUCKET_MILLIS.length ? (double) BUCKET_MILLIS[i] : maxNanos.get() / 1000000.0;
+                }
+            }
+            return maxNanos.get() / 1000000.0;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package utilities;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.*;
+
+// A row from a result set: values live in a flat array indexed through a schema that is
+// built once per result set and shared by every row. Keys that are not columns (for example
+// "RatingAvg" added by the servlets) go to a small overflow map, so callers can keep treating
+// the row like any other mutable Map. Iteration follows the column order of the query.
+public final class RecordRow extends AbstractMap<String, Object> {
+    private static final Object ABSENT = new Object();
+
+    private final Schema schema;
+    private final Object[] values;
+    private Map<String, Object> extra;
+    private int size;
+
+    public RecordRow(Schema schema, Object[] values) {
+        if (values.length != schema.names.length) {
+            throw new IllegalArgumentException("Expected " + schema.names.length + " values but got " + values.length);
+        }
+        this.schema = schema;
+        this.values = values;
+        this.size = values.length;
+        for (int shadowed : schema.shadowed) {
+            values[shadowed] = ABSENT;
+            size--;
+        }
+    }
+
+    public static RecordRow read(Schema schema, ResultSet rs) throws SQLException {
+        Object[] values = new Object[schema.names.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = rs.getObject(i + 1);
+        }
+        return new RecordRow(schema, values);
+    }
+
+    public Schema getSchema() {
+        return schema;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int index = schema.indexOf(key);
+        if (index >= 0) {
+            return values[index] != ABSENT;
+        }
+        return extra != null && extra.containsKey(key);
+    }
+
+    @Override
+    public Object get(Object key) {
+        int index = schema.indexOf(key);
+        if (index >= 0) {
+            Object value = values[index];
+            return value == ABSENT ? null : value;
+        }
+        return extra != null ? extra.get(key) : null;
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        int index = schema.indexOf(key);
+        if (index >= 0) {
+            Object previous = values[index];
+            values[index] = value;
+            if (previous == ABSENT) {
+                size++;
+                return null;
+            }
+            return previous;
+        }
+        if (extra == null) {
+            extra = new LinkedHashMap<>(4);
+        }
+        if (!extra.containsKey(key)) {
+            size++;
+        }
+        return extra.put(key, value);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int index = schema.indexOf(key);
+        if (index >= 0) {
+            Object previous = values[index];
+            if (previous == ABSENT) {
+                return null;
+            }
+            values[index] = ABSENT;
+            size--;
+            return previous;
+        }
+        if (extra != null && extra.containsKey(key)) {
+            size--;
+            return extra.remove(key);
+        }
+        return null;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Object>>() {
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return new EntryIterator();
+            }
+        };
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+        private int next = advance(0);
+        private int last = -1;
+        private Iterator<Map.Entry<String, Object>> extraIterator;
+
+        private int advance(int from) {
+            while (from < values.length && values[from] == ABSENT) {
+                from++;
+            }
+            return from;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next < values.length) {
+                return true;
+            }
+            if (extraIterator == null && extra != null) {
+                extraIterator = extra.entrySet().iterator();
+            }
+            return extraIterator != null && extraIterator.hasNext();
+        }
+
+        @Override
+        public Map.Entry<String, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (next < values.length) {
+                last = next;
+                next = advance(next + 1);
+                return new ColumnEntry(last);
+            }
+            last = -1;
+            return extraIterator.next();
+        }
+
+        @Override
+        public void remove() {
+            if (last >= 0) {
+                values[last] = ABSENT;
+                last = -1;
+            } else if (extraIterator != null) {
+                extraIterator.remove();
+            } else {
+                throw new IllegalStateException();
+            }
+            size--;
+        }
+    }
+
+    private class ColumnEntry implements Map.Entry<String, Object> {
+        private final int index;
+
+        ColumnEntry(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public String getKey() {
+            return schema.names[index];
+        }
+
+        @Override
+        public Object getValue() {
+            Object value = values[index];
+            return value == ABSENT ? null : value;
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            Object previous = getValue();
+            values[index] = value;
+            return previous;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> other = (Map.Entry<?, ?>) o;
+            return getKey().equals(other.getKey()) && Objects.equals(getValue(), other.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return getKey().hashCode() ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+
+    public static final class Schema {
+        private final String[] names;
+        private final Map<String, Integer> indexes;
+        private final int[] shadowed;
+
+        // A repeated column name keeps only its last value, the same as putting it into a HashMap.
+        public Schema(String[] names) {
+            this.names = names.clone();
+            this.indexes = new HashMap<>(names.length * 2);
+            List<Integer> hidden = new ArrayList<>();
+            for (int i = 0; i < names.length; i++) {
+                Integer previous = indexes.put(names[i], i);
+                if (previous != null) {
+                    hidden.add(previous);
+                }
+            }
+            this.shadowed = hidden.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        public static Schema of(ResultSetMetaData metaData) throws SQLException {
+            String[] names = new String[metaData.getColumnCount()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = metaData.getColumnName(i + 1);
+            }
+            return new Schema(names);
+        }
+
+        public int size() {
+            return names.length;
+        }
+
+        public String name(int index) {
+            return names[index];
+        }
+
+        int indexOf(Object key) {
+            Integer index = indexes.get(key);
+            return index != null ? index : -1;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package utilities;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Read replicas behind MySQLDataStoreUtilities, one connection pool each. Reads are spread
+// round-robin over the replicas that are up. A replica that cannot be connected to is taken out
+// of rotation and a background probe puts it back once it answers again, so reads never wait on
+// a replica that is known to be down. A replica whose pool is merely exhausted stays in rotation:
+// the read moves on to the next one and the timeout is counted.
+public class ReplicaSet {
+    private static final int PROBE_TIMEOUT_SECONDS = 5;
+
+    private final List<Replica> replicas = new ArrayList<>();
+    private final AtomicInteger next = new AtomicInteger();
+    private final ScheduledExecutorService prober;
+
+    public ReplicaSet(List<String> urls, String user, String password, Map<String, String> settings) {
+        long probeIntervalMillis = Long.parseLong(settings.getOrDefault("probeIntervalMillis", "5000").trim());
+        for (String url : urls) {
+            replicas.add(new Replica(url, new ConnectionPool(url, user, password, settings)));
+        }
+
+        prober = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "mysql-replica-prober");
+            t.setDaemon(true);
+            return t;
+        });
+        prober.scheduleWithFixedDelay(this::probe, probeIntervalMillis, probeIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Returns null when no replica is up, in which case the caller reads from the primary.
+    public Connection getConnection() {
+        int count = replicas.size();
+        int start = Math.floorMod(next.getAndIncrement(), count);
+        for (int i = 0; i < count; i++) {
+            Replica replica = replicas.get((start + i) % count);
+            if (!replica.healthy) {
+                continue;
+            }
+            try {
+                Connection conn = replica.pool.getConnection();
+                replica.reads.increment();
+                return conn;
+            } catch (SQLException e) {
+                replica.failed(e);
+            }
+        }
+        return null;
+    }
+
+    // A connection to the replica with this URL, or null when there is no such replica or it is down.
+    public Connection getConnection(String url) {
+        for (Replica replica : replicas) {
+            if (replica.url.equals(url) && replica.healthy) {
+                try {
+                    return replica.pool.getConnection();
+                } catch (SQLException e) {
+                    replica.failed(e);
+                }
+            }
+        }
+        return null;
+    }
+
+    public List<Map<String, Object>> getStats() {
+        List<Map<String, Object>> stats = new ArrayList<>();
+        for (Replica replica : replicas) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("url", replica.url);
+            entry.put("healthy", replica.healthy);
+            entry.put("reads", replica.reads.sum());
+            entry.put("failures", replica.failures.sum());
+            entry.put("timeouts", replica.timeouts.sum());
+            entry.put("lastError", replica.lastError);
+            entry.put("pool", replica.pool.getStats());
+            stats.add(entry);
+        }
+        return stats;
+    }
+
+    public void shutdown() {
+        prober.shutdownNow();
+        for (Replica replica : replicas) {
+            replica.pool.shutdown();
+        }
+    }
+
+    private void probe() {
+        for (Replica replica : replicas) {
+            if (replica.healthy) {
+                continue;
+            }
+            try (Connection conn = replica.pool.getConnection()) {
+                if (conn.isValid(PROBE_TIMEOUT_SECONDS)) {
+                    replica.healthy = true;
+                    replica.lastError = null;
+                } else {
+                    replica.lastError = "Replica did not answer the health check";
+                }
+            } catch (SQLException e) {
+                replica.lastError = e.getMessage();
+            }
+        }
+    }
+
+    private static class Replica {
+        final String url;
+        final ConnectionPool pool;
+        final LongAdder reads = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final LongAdder timeouts = new LongAdder();
+        volatile boolean healthy = true;
+        volatile String lastError;
+
+        Replica(String url, ConnectionPool pool) {
+            this.url = url;
+            this.pool = pool;
+        }
+
+        // Only a failure to connect or validate takes the replica down, not a checkout timeout.
+        void failed(SQLException e) {
+            if (ConnectionPool.isTimeout(e)) {
+                timeouts.increment();
+                return;
+            }
+            healthy = false;
+            failures.increment();
+            lastError = e.getMessage();
+        }
+    }
+}
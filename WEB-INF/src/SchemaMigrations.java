@@ -0,0 +1,252 @@
+package utilities;
+
+import java.sql.*;
+import java.util.*;
+
+// Versioned schema changes applied at startup on top of db/schema.sql. The SchemaVersion table
+// records which migrations have run; each one runs at most once per database, and a named
+// MySQL lock keeps two instances starting together from racing. MySQL commits DDL implicitly,
+// so the steps are written to be safe to repeat if a migration stops halfway.
+//
+// Verification runs EXPLAIN on the query shapes the servlets issue and reports every one that
+// would scan a whole table. Run it from the command line with:
+//   java -cp "$COMPILED_CLASS_DIR:WEB-INF/lib/*" utilities.SchemaMigrations --verify
+public class SchemaMigrations {
+    private static final String LOCK_NAME = "smarthomes.schema_migrations";
+    private static final int LOCK_TIMEOUT_SECONDS = 60;
+
+    @FunctionalInterface
+    private interface Step {
+        void apply(Connection conn) throws SQLException;
+    }
+
+    private static final class Migration {
+        final int version;
+        final String description;
+        final Step step;
+
+        Migration(int version, String description, Step step) {
+            this.version = version;
+            this.description = description;
+            this.step = step;
+        }
+    }
+
+    private static final List<Migration> MIGRATIONS = Arrays.asList(
+        new Migration(1, "Secondary indexes for lookups by order and email", conn -> {
+            // Lookups by CustomerID, ProductID and UserID use the indexes InnoDB keeps for the
+            // foreign keys in db/schema.sql
+            addIndex(conn, "Transactions", "idx_transactions_order", "OrderID");
+            addIndex(conn, "Users", "idx_users_email", "Email");
+        }),
+        new Migration(2, "Stored PurchaseDay column and index for the daily sales report", conn -> {
+            // INVISIBLE keeps the column out of SELECT *, so API responses do not change
+            addColumn(conn, "Transactions", "PurchaseDay",
+                    "DATE GENERATED ALWAYS AS (DATE(PurchaseDate)) STORED INVISIBLE");
+            addIndex(conn, "Transactions", "idx_transactions_purchase_day", "PurchaseDay, TotalSales");
+        }),
+        new Migration(3, "Unique product model names for the catalog upsert", conn -> {
+            String duplicate = firstString(conn, "SELECT ProductModelName FROM Products "
+                    + "GROUP BY ProductModelName HAVING COUNT(*) > 1 LIMIT 1");
+            if (duplicate != null) {
+                throw new SQLException("Products has duplicate ProductModelName '" + duplicate + "'; remove duplicates and restart");
+            }
+            addIndex(conn, "Products", "uq_products_model_name", "ProductModelName", true);
+        })
+    );
+
+    // The lookups the servlets and reports run, in the exact SQL they send.
+    private static final Map<String, String> QUERY_SHAPES = new LinkedHashMap<>();
+    static {
+        QUERY_SHAPES.put("Orders by customer", "SELECT * FROM Transactions WHERE CustomerID = ?");
+        QUERY_SHAPES.put("Order by id", "SELECT * FROM Transactions WHERE OrderID = ?");
+        QUERY_SHAPES.put("Transaction by id", "SELECT * FROM Transactions WHERE TransactionID = ?");
+        QUERY_SHAPES.put("Transactions by product", "SELECT * FROM Transactions WHERE ProductID = ?");
+        QUERY_SHAPES.put("Product by id", "SELECT * FROM Products WHERE ProductID = ?");
+        QUERY_SHAPES.put("Accessories by product", "SELECT * FROM ProductAccessories WHERE ProductID = ?");
+        QUERY_SHAPES.put("User by email", "SELECT * FROM Users WHERE Email = ?");
+        QUERY_SHAPES.put("User by username", "SELECT * FROM Users WHERE Username = ?");
+        QUERY_SHAPES.put("Customer by user", "SELECT * FROM Customers WHERE UserID = ?");
+        QUERY_SHAPES.put("Daily sales", "SELECT PurchaseDay as SaleDate, SUM(TotalSales) as TotalSales "
+                + "FROM Transactions GROUP BY PurchaseDay ORDER BY SaleDate DESC");
+    }
+
+    private static volatile Map<String, Object> status = Collections.emptyMap();
+    // The recorded schema version; -1 until migrate() or isApplied() has read it
+    private static volatile int schemaVersion = -1;
+
+    // Applies pending migrations and returns the resulting schema version.
+    public static int migrate() throws SQLException {
+        try (Connection conn = MySQLDataStoreUtilities.getConnection()) {
+            if (!lock(conn)) {
+                throw new SQLException("Timed out waiting for the schema migration lock");
+            }
+            try {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("CREATE TABLE IF NOT EXISTS SchemaVersion ("
+                            + "Version INT PRIMARY KEY, "
+                            + "Description VARCHAR(255), "
+                            + "AppliedAt DATETIME DEFAULT CURRENT_TIMESTAMP)");
+                }
+
+                int current = currentVersion(conn);
+                List<Integer> applied = new ArrayList<>();
+                for (Migration migration : MIGRATIONS) {
+                    if (migration.version <= current) {
+                        continue;
+                    }
+                    migration.step.apply(conn);
+                    try (PreparedStatement pstmt = conn.prepareStatement(
+                            "INSERT INTO SchemaVersion (Version, Description) VALUES (?, ?)")) {
+                        pstmt.setInt(1, migration.version);
+                        pstmt.setString(2, migration.description);
+                        pstmt.executeUpdate();
+                    }
+                    System.out.println("Applied schema migration " + migration.version + ": " + migration.description);
+                    applied.add(migration.version);
+                    current = migration.version;
+                }
+
+                Map<String, Object> result = new LinkedHashMap<>();
+                result.put("version", current);
+                result.put("latestVersion", MIGRATIONS.get(MIGRATIONS.size() - 1).version);
+                result.put("appliedAtStartup", applied);
+                status = result;
+                schemaVersion = current;
+                return current;
+            } finally {
+                unlock(conn);
+            }
+        }
+    }
+
+    // Returns one entry per query shape whose plan scans a full table; empty when all use an index.
+    public static List<String> verify() throws SQLException {
+        List<String> fullScans = new ArrayList<>();
+        try (Connection conn = MySQLDataStoreUtilities.getConnection()) {
+            for (Map.Entry<String, String> shape : QUERY_SHAPES.entrySet()) {
+                try (PreparedStatement pstmt = conn.prepareStatement("EXPLAIN " + shape.getValue())) {
+                    for (int i = 1; i <= pstmt.getParameterMetaData().getParameterCount(); i++) {
+                        pstmt.setString(i, "1");
+                    }
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            if ("ALL".equalsIgnoreCase(rs.getString("type"))) {
+                                fullScans.add(shape.getKey() + ": full scan of " + rs.getString("table")
+                                        + " in " + shape.getValue());
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>(status);
+        result.put("verified", fullScans.isEmpty());
+        result.put("fullScans", fullScans);
+        status = result;
+        return fullScans;
+    }
+
+    // Whether the database is at this migration version or later. Code that needs a migrated
+    // column checks this and keeps its old form while the migration has not run (mysql.migrate
+    // is off or it failed at startup).
+    public static boolean isApplied(int version) throws SQLException {
+        int current = schemaVersion;
+        if (current < 0) {
+            try (Connection conn = MySQLDataStoreUtilities.getConnection()) {
+                current = exists(conn, "SELECT 1 FROM information_schema.TABLES "
+                        + "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?", "SchemaVersion") ? currentVersion(conn) : 0;
+            }
+            schemaVersion = current;
+        }
+        return current >= version;
+    }
+
+    public static Map<String, Object> getStatus() {
+        return status;
+    }
+
+    public static void main(String[] args) throws SQLException {
+        boolean verify = Arrays.asList(args).contains("--verify");
+        try {
+            System.out.println("Schema version " + migrate());
+            if (verify) {
+                List<String> fullScans = verify();
+                fullScans.forEach(System.out::println);
+                if (!fullScans.isEmpty()) {
+                    System.exit(1);
+                }
+                System.out.println("All " + QUERY_SHAPES.size() + " query shapes use an index");
+            }
+        } finally {
+            MySQLDataStoreUtilities.shutdown();
+        }
+    }
+
+    private static int currentVersion(Connection conn) throws SQLException {
+        String version = firstString(conn, "SELECT MAX(Version) FROM SchemaVersion");
+        return version != null ? Integer.parseInt(version) : 0;
+    }
+
+    private static void addIndex(Connection conn, String table, String name, String columns) throws SQLException {
+        addIndex(conn, table, name, columns, false);
+    }
+
+    private static void addIndex(Connection conn, String table, String name, String columns, boolean unique) throws SQLException {
+        if (exists(conn, "SELECT 1 FROM information_schema.STATISTICS "
+                + "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND INDEX_NAME = ?", table, name)) {
+            return;
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("ALTER TABLE " + table + " ADD " + (unique ? "UNIQUE " : "") + "INDEX " + name
+                    + " (" + columns + "), ALGORITHM=INPLACE, LOCK=NONE");
+        }
+    }
+
+    private static void addColumn(Connection conn, String table, String column, String definition) throws SQLException {
+        if (exists(conn, "SELECT 1 FROM information_schema.COLUMNS "
+                + "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND COLUMN_NAME = ?", table, column)) {
+            return;
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+        }
+    }
+
+    private static boolean exists(Connection conn, String sql, String... parameters) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < parameters.length; i++) {
+                pstmt.setString(i + 1, parameters[i]);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    private static String firstString(Connection conn, String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+            return rs.next() ? rs.getString(1) : null;
+        }
+    }
+
+    private static boolean lock(Connection conn) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT GET_LOCK(?, ?)")) {
+            pstmt.setString(1, LOCK_NAME);
+            pstmt.setInt(2, LOCK_TIMEOUT_SECONDS);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() && rs.getInt(1) == 1;
+            }
+        }
+    }
+
+    private static void unlock(Connection conn) {
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+            pstmt.setString(1, LOCK_NAME);
+            pstmt.executeQuery().close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
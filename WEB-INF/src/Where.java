@@ -0,0 +1,110 @@
+package utilities;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.regex.Pattern;
+
+// A WHERE condition built from bind parameters instead of concatenated values. The SQL text
+// only depends on the columns and operators, so "ProductID = ?" is the same statement for
+// every product and MySQL and the pooled statement cache can reuse it across requests.
+public final class Where {
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    private final String sql;
+    private final List<Object> parameters;
+
+    private Where(String sql, List<Object> parameters) {
+        this.sql = sql;
+        this.parameters = parameters;
+    }
+
+    public static Where eq(String column, Object value) {
+        if (value == null) {
+            return new Where(column(column) + " IS NULL", Collections.emptyList());
+        }
+        return new Where(column(column) + " = ?", Collections.singletonList(value));
+    }
+
+    public static Where in(String column, Collection<?> values) {
+        if (values.isEmpty()) {
+            return new Where("1 = 0", Collections.emptyList());
+        }
+        StringBuilder sql = new StringBuilder(column(column)).append(" IN (");
+        for (int i = 0; i < values.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(")");
+        return new Where(sql.toString(), new ArrayList<>(values));
+    }
+
+    // Inclusive on both ends; a null bound leaves that side open.
+    public static Where range(String column, Object from, Object to) {
+        String name = column(column);
+        if (from != null && to != null) {
+            return new Where(name + " BETWEEN ? AND ?", Arrays.asList(from, to));
+        }
+        if (from != null) {
+            return new Where(name + " >= ?", Collections.singletonList(from));
+        }
+        if (to != null) {
+            return new Where(name + " <= ?", Collections.singletonList(to));
+        }
+        return new Where("1 = 1", Collections.emptyList());
+    }
+
+    public static Where and(Where... conditions) {
+        return join(" AND ", "1 = 1", conditions);
+    }
+
+    public static Where or(Where... conditions) {
+        return join(" OR ", "1 = 0", conditions);
+    }
+
+    private static Where join(String operator, String empty, Where[] conditions) {
+        if (conditions.length == 0) {
+            return new Where(empty, Collections.emptyList());
+        }
+        if (conditions.length == 1) {
+            return conditions[0];
+        }
+        StringBuilder sql = new StringBuilder();
+        List<Object> parameters = new ArrayList<>();
+        for (Where condition : conditions) {
+            if (sql.length() > 0) {
+                sql.append(operator);
+            }
+            sql.append("(").append(condition.sql).append(")");
+            parameters.addAll(condition.parameters);
+        }
+        return new Where(sql.toString(), parameters);
+    }
+
+    private static String column(String column) {
+        if (column == null || !IDENTIFIER.matcher(column).matches()) {
+            throw new IllegalArgumentException("Invalid column name: " + column);
+        }
+        return column;
+    }
+
+    public String toSql() {
+        return sql;
+    }
+
+    public List<Object> getParameters() {
+        return Collections.unmodifiableList(parameters);
+    }
+
+    // Binds the parameters starting at the given 1-based index and returns the next free index.
+    public int bind(PreparedStatement pstmt, int index) throws SQLException {
+        for (Object parameter : parameters) {
+            pstmt.setObject(index++, parameter);
+        }
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return sql + " " + parameters;
+    }
+}
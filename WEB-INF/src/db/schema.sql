@@ -1,3 +1,6 @@
+-- Base schema (version 0). Indexes and later changes are applied at startup by
+-- utilities.SchemaMigrations, which records them in the SchemaVersion table.
+
 -- Create the smarthomes database
 CREATE DATABASE IF NOT EXISTS smarthomes;
 
@@ -21,6 +21,7 @@ public class AjaxUtility extends HttpServlet {
         super.init();
         loadProductsFromXML();
         storeProductsInDatabase();
+        ProductCatalog.invalidate();
     }
 
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
@@ -40,63 +41,82 @@ public class AjaxUtility extends HttpServlet {
 
     private List<Product> getProductSuggestions(String query) throws SQLException {
         List<Product> suggestions = new ArrayList<>();
-        String sql = "SELECT * FROM Products WHERE ProductModelName LIKE ? LIMIT 10";
 
-        try (Connection conn = MySQLDataStoreUtilities.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, "%" + query + "%");
-            ResultSet rs = pstmt.executeQuery();
-
-            while (rs.next()) {
-                Product product = new Product(
-                    rs.getInt("ProductID"),
-                    rs.getString("ProductModelName"),
-                    rs.getString("ProductCategory"),
-                    rs.getDouble("ProductPrice"),
-                    rs.getBoolean("ProductOnSale"),
-                    rs.getString("ManufacturerName"),
-                    rs.getBoolean("ManufacturerRebate"),
-                    rs.getInt("Inventory"),
-                    rs.getString("ProductImage"),
-                    rs.getString("ProductDescription")
-                );
-                suggestions.add(product);
-            }
+        // Matched against the cached catalog instead of a LIKE query per keystroke
+        for (Map<String, Object> row : ProductCatalog.searchByName(String.valueOf(query), 10)) {
+            Product product = new Product(
+                ((Number) row.get("ProductID")).intValue(),
+                (String) row.get("ProductModelName"),
+                (String) row.get("ProductCategory"),
+                row.get("ProductPrice") != null ? ((Number) row.get("ProductPrice")).doubleValue() : 0.0,
+                isTrue(row.get("ProductOnSale")),
+                (String) row.get("ManufacturerName"),
+                isTrue(row.get("ManufacturerRebate")),
+                row.get("Inventory") != null ? ((Number) row.get("Inventory")).intValue() : 0,
+                (String) row.get("ProductImage"),
+                (String) row.get("ProductDescription")
+            );
+            suggestions.add(product);
         }
         return suggestions;
     }
 
+    private static boolean isTrue(Object value) {
+        return value instanceof Boolean ? (Boolean) value : value instanceof Number && ((Number) value).intValue() != 0;
+    }
+
     private void loadProductsFromXML() {
         String xmlFilePath = getServletContext().getRealPath("/WEB-INF/ProductCatalog.xml");
         try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document doc = builder.parse(new File(xmlFilePath));
-            doc.getDocumentElement().normalize();
-
-            NodeList productNodes = doc.getElementsByTagName("Product");
-            for (int i = 0; i < productNodes.getLength(); i++) {
-                Element productElement = (Element) productNodes.item(i);
+            productsMap.putAll(readProductsFromXML(new File(xmlFilePath)));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // The products in the catalog file by model name, as the startup import stores them.
+    public static Map<String, Product> readProductsFromXML(File xmlFile) throws Exception {
+        Map<String, Product> products = new LinkedHashMap<>();
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        DocumentBuilder builder = factory.newDocumentBuilder();
+        Document doc = builder.parse(xmlFile);
+        doc.getDocumentElement().normalize();
+
+        NodeList productNodes = doc.getElementsByTagName("Product");
+        for (int i = 0; i < productNodes.getLength(); i++) {
+            Element productElement = (Element) productNodes.item(i);
+            // One unreadable product is skipped rather than ending the import
+            try {
                 Product product = new Product(
                     0, // ProductID will be assigned by the database
                     getElementTextContent(productElement, "ProductModelName"),
                     getElementTextContent(productElement, "ProductCategory"),
-                    Double.parseDouble(getElementTextContent(productElement, "ProductPrice")),
+                    parseDouble(getElementTextContent(productElement, "ProductPrice")),
                     Boolean.parseBoolean(getElementTextContent(productElement, "ProductOnSale")),
                     getElementTextContent(productElement, "ManufacturerName"),
                     Boolean.parseBoolean(getElementTextContent(productElement, "ManufacturerRebate")),
-                    Integer.parseInt(getElementTextContent(productElement, "Inventory")),
+                    parseInt(getElementTextContent(productElement, "Inventory")),
                     getElementTextContent(productElement, "ProductImage"),
                     getElementTextContent(productElement, "ProductDescription")
                 );
-                productsMap.put(product.getProductModelName(), product);
+                products.put(product.getProductModelName(), product);
+            } catch (NumberFormatException e) {
+                System.err.println("Skipping product " + (i + 1) + " in " + xmlFile + ": " + e.getMessage());
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
+        return products;
+    }
+
+    // Missing or empty elements are NULL columns, read as 0 like getProductSuggestions does
+    private static double parseDouble(String text) {
+        return text.trim().isEmpty() ? 0.0 : Double.parseDouble(text.trim());
+    }
+
+    private static int parseInt(String text) {
+        return text.trim().isEmpty() ? 0 : Integer.parseInt(text.trim());
     }
 
-    private String getElementTextContent(Element parentElement, String elementName) {
+    private static String getElementTextContent(Element parentElement, String elementName) {
         NodeList nodeList = parentElement.getElementsByTagName(elementName);
         if (nodeList != null && nodeList.getLength() > 0) {
             return nodeList.item(0).getTextContent();
@@ -141,7 +161,7 @@ public class AjaxUtility extends HttpServlet {
         }
     }
 
-    private static class Product {
+    public static class Product {
         private int productID;
         private String productModelName;
         private String productCategory;
@@ -4,6 +4,7 @@ import javax.servlet.*;
 import javax.servlet.http.*;
 import javax.servlet.annotation.*;
 import utilities.MySQLDataStoreUtilities;
+import utilities.Where;
 import com.google.gson.Gson;
 import java.sql.SQLException;
 
@@ -31,7 +32,7 @@ public class AuthServlet extends HttpServlet {
         String password = loginData.get("password");
 
         try {
-            List<Map<String, Object>> users = MySQLDataStoreUtilities.getRecords("Users", "Email = '" + username + "' OR Email = '" + username + "'");
+            List<Map<String, Object>> users = MySQLDataStoreUtilities.getRecords("Users", Where.eq("Email", username));
             if (!users.isEmpty()) {
                 Map<String, Object> user = users.get(0);
                 // TODO: Implement password hashing and verification
@@ -42,7 +43,7 @@ public class AuthServlet extends HttpServlet {
                     
                     // Get user object and CustomerID
                     Map<String, Object> userWithCustomerId = new HashMap<>(user);
-                    List<Map<String, Object>> customerRecords = MySQLDataStoreUtilities.getRecords("Customers", "UserID = " + user.get("UserID"));
+                    List<Map<String, Object>> customerRecords = MySQLDataStoreUtilities.getRecords("Customers", Where.eq("UserID", user.get("UserID")));
                     if (!customerRecords.isEmpty()) {
                         userWithCustomerId.put("CustomerID", customerRecords.get(0).get("CustomerID"));
                     }
@@ -69,7 +70,7 @@ public class AuthServlet extends HttpServlet {
         Map<String, Object> signupData = gson.fromJson(reader, Map.class);
 
         try {
-            List<Map<String, Object>> existingUsers = MySQLDataStoreUtilities.getRecords("Users", "Username = '" + signupData.get("Username") + "'");
+            List<Map<String, Object>> existingUsers = MySQLDataStoreUtilities.getRecords("Users", Where.eq("Username", signupData.get("Username")));
             if (!existingUsers.isEmpty()) {
                 response.getWriter().write("{\"success\":false,\"message\":\"Username/Email already exists!\"}");
                 return;
@@ -7,6 +7,7 @@ import javax.servlet.annotation.*;
 import java.sql.*;
 import java.util.*;
 import utilities.MySQLDataStoreUtilities;
+import utilities.Where;
 import com.google.gson.Gson;
 import java.util.stream.Collectors;
 import java.net.HttpURLConnection;
@@ -32,7 +33,7 @@ public class CustomerServiceServlet extends HttpServlet {
             if (ticketId != null) {
                 List<Map<String, Object>> tickets = MySQLDataStoreUtilities.getRecords(
                     "CustomerServiceTickets", 
-                    "TicketID = " + ticketId.replace("TKT-", "")
+                    Where.eq("TicketID", ticketId.replace("TKT-", ""))
                 );
 
                 if (tickets.isEmpty()) {
@@ -59,7 +60,7 @@ public class CustomerServiceServlet extends HttpServlet {
 
         List<Map<String, Object>> tickets = MySQLDataStoreUtilities.getRecords(
             "CustomerServiceTickets", 
-            "TicketID = " + ticketNumber.replace("TKT-", "")
+            Where.eq("TicketID", ticketNumber.replace("TKT-", ""))
         );
 
         PrintWriter out = response.getWriter();
@@ -120,7 +121,7 @@ public class CustomerServiceServlet extends HttpServlet {
 
         List<Map<String, Object>> transactions = MySQLDataStoreUtilities.getRecords(
             "Transactions", 
-            "OrderID = '" + orderId + "'"
+            Where.eq("OrderID", orderId)
         );
         
         if (transactions.isEmpty()) {
@@ -165,7 +166,7 @@ public class CustomerServiceServlet extends HttpServlet {
 
         List<Map<String, Object>> transactions = MySQLDataStoreUtilities.getRecords(
             "Transactions", 
-            "OrderID = '" + orderId + "'"
+            Where.eq("OrderID", orderId)
         );
         
         if (transactions.isEmpty()) {
@@ -7,6 +7,7 @@ import javax.servlet.annotation.*;
 import java.sql.*;
 import java.util.*;
 import utilities.MySQLDataStoreUtilities;
+import utilities.Where;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 
@@ -43,8 +44,12 @@ public class CustomersCRUD extends HttpServlet {
         response.setContentType("application/json");
         response.setCharacterEncoding("UTF-8");
         try {
-            List<Map<String, Object>> customers = MySQLDataStoreUtilities.getRecords("Customers", null);
+            List<String> fields = MySQLDataStoreUtilities.parseColumns("Customers", request.getParameter("fields"));
+            List<Map<String, Object>> customers = MySQLDataStoreUtilities.getRecords("Customers", fields, null);
             response.getWriter().write(gson.toJson(customers));
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.getWriter().write(gson.toJson(createErrorResponse(e.getMessage())));
         } catch (SQLException e) {
             response.getWriter().write(gson.toJson(createErrorResponse("Database error")));
             e.printStackTrace();
@@ -66,7 +71,7 @@ public class CustomersCRUD extends HttpServlet {
         Map<String, Object> customerValues = new HashMap<>();
         customerValues.put("UserID", Integer.parseInt(request.getParameter("userId")));
 
-        int rowsAffected = MySQLDataStoreUtilities.updateRecord("Customers", customerValues, "CustomerID = " + customerId);
+        int rowsAffected = MySQLDataStoreUtilities.updateRecord("Customers", customerValues, Where.eq("CustomerID", customerId));
         JsonObject responseJson = new JsonObject();
         responseJson.addProperty("message", "Customer updated. Rows affected: " + rowsAffected);
         response.getWriter().write(gson.toJson(responseJson));
@@ -74,7 +79,7 @@ public class CustomersCRUD extends HttpServlet {
 
     private void deleteCustomer(HttpServletRequest request, HttpServletResponse response) throws SQLException, IOException {
         int customerId = Integer.parseInt(request.getParameter("customerId"));
-        int rowsAffected = MySQLDataStoreUtilities.deleteRecord("Customers", "CustomerID = " + customerId);
+        int rowsAffected = MySQLDataStoreUtilities.deleteRecord("Customers", Where.eq("CustomerID", customerId));
         JsonObject responseJson = new JsonObject();
         responseJson.addProperty("message", "Customer deleted. Rows affected: " + rowsAffected);
         response.getWriter().write(gson.toJson(responseJson));
@@ -0,0 +1,51 @@
+package servlets;
+
+import java.io.IOException;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+import utilities.MySQLDataStoreUtilities;
+
+// Scopes read/write routing to one HTTP request: once the request (or, through the session,
+// a recent request from the same user) has written, its reads go to the primary so they see
+// that write instead of a replica that may still be catching up.
+@WebFilter("/*")
+public class DataStoreRequestFilter implements Filter {
+    private static final String LAST_WRITE_ATTRIBUTE = "mysql.lastWriteMillis";
+
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) req;
+        HttpSession session = request.getSession(false);
+        Object lastWrite = session != null ? session.getAttribute(LAST_WRITE_ATTRIBUTE) : null;
+
+        MySQLDataStoreUtilities.beginRequest(lastWrite instanceof Long ? (Long) lastWrite : 0L);
+        boolean wrote = false;
+        try {
+            chain.doFilter(req, res);
+        } finally {
+            wrote = MySQLDataStoreUtilities.endRequest();
+        }
+
+        if (wrote) {
+            session = request.getSession(false);
+            if (session != null) {
+                try {
+                    session.setAttribute(LAST_WRITE_ATTRIBUTE, System.currentTimeMillis());
+                } catch (IllegalStateException e) {
+                    // Session was invalidated by the request (logout)
+                }
+            }
+        }
+    }
+
+    public void init(FilterConfig filterConfig) {}
+
+    public void destroy() {}
+}
@@ -12,6 +12,7 @@ import org.bson.Document;
 @WebServlet("/insights")
 public class InsightsServlet extends HttpServlet {
     private static final long serialVersionUID = 1L;
+    private static final List<String> CATEGORY_RATING_FIELDS = Arrays.asList("productCategory", "reviewRating", "userID");
     private Gson gson = new Gson();
 
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
@@ -57,21 +58,19 @@ public class InsightsServlet extends HttpServlet {
     private List<Map<String, Object>> getCategoryRatings() throws SQLException {
         List<Map<String, Object>> categoryRatings = new ArrayList<>();
         
-        // Get all product reviews from MongoDB
-        List<Map<String, Object>> allReviews = MongoDBDataStoreUtilities.getAllRecords();
-        
-        // Calculate average rating and user count for each category
+        // Calculate average rating and user count for each category, streaming only the
+        // three fields used instead of loading every full review
         Map<String, List<Integer>> categoryRatingsMap = new HashMap<>();
         Map<String, Set<String>> categoryUsersMap = new HashMap<>();
         
-        for (Map<String, Object> review : allReviews) {
+        MongoDBDataStoreUtilities.streamRecords(null, CATEGORY_RATING_FIELDS, null, 0, 0, review -> {
             String category = (String) review.get("productCategory");
             int rating = (int) review.get("reviewRating");
             String userId = (String) review.get("userID");
             
             categoryRatingsMap.computeIfAbsent(category, k -> new ArrayList<>()).add(rating);
             categoryUsersMap.computeIfAbsent(category, k -> new HashSet<>()).add(userId);
-        }
+        });
         
         for (String category : categoryRatingsMap.keySet()) {
             Map<String, Object> categoryData = new HashMap<>();
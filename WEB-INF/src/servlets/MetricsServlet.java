@@ -0,0 +1,43 @@
+package servlets;
+
+import java.io.*;
+import javax.servlet.*;
+import javax.servlet.http.*;
+import javax.servlet.annotation.*;
+import java.util.*;
+import utilities.CatalogXmlWriter;
+import utilities.MongoDBDataStoreUtilities;
+import utilities.MongoIndexes;
+import utilities.MySQLDataStoreUtilities;
+import utilities.ProductCatalog;
+import utilities.QueryStats;
+import utilities.SchemaMigrations;
+import com.google.gson.Gson;
+
+@WebServlet("/api/metrics")
+public class MetricsServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    private Gson gson = new Gson();
+
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-store");
+        PrintWriter out = response.getWriter();
+
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("mysqlPool", MySQLDataStoreUtilities.getPoolStats());
+        metrics.put("mysqlStatementCache", MySQLDataStoreUtilities.getStatementCacheStats());
+        metrics.put("mysqlReplication", MySQLDataStoreUtilities.getReplicaStats());
+        metrics.put("mysqlAsync", MySQLDataStoreUtilities.getAsyncStats());
+        metrics.put("mysqlSchema", SchemaMigrations.getStatus());
+        metrics.put("productCatalogCache", ProductCatalog.getStats());
+        metrics.put("productCatalogXml", CatalogXmlWriter.getStats());
+        metrics.put("mongoPool", MongoDBDataStoreUtilities.getPoolStats());
+        metrics.put("mongoIndexes", MongoIndexes.getStatus());
+        metrics.put("mysqlQueries", QueryStats.getStats());
+        metrics.put("mysqlSlowQueries", QueryStats.getSlowQueries());
+        out.print(gson.toJson(metrics));
+    }
+}
@@ -7,6 +7,7 @@ import javax.servlet.annotation.*;
 import java.sql.*;
 import java.util.*;
 import utilities.MySQLDataStoreUtilities;
+import utilities.Where;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 
@@ -43,8 +44,12 @@ public class OrdersCRUD extends HttpServlet {
         response.setContentType("application/json");
         response.setCharacterEncoding("UTF-8");
         try {
-            List<Map<String, Object>> orderUpdates = MySQLDataStoreUtilities.getRecords("OrderUpdates", null);
+            List<String> fields = MySQLDataStoreUtilities.parseColumns("OrderUpdates", request.getParameter("fields"));
+            List<Map<String, Object>> orderUpdates = MySQLDataStoreUtilities.getRecords("OrderUpdates", fields, null);
             response.getWriter().write(gson.toJson(orderUpdates));
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.getWriter().write(gson.toJson(createErrorResponse(e.getMessage())));
         } catch (SQLException e) {
             response.getWriter().write(gson.toJson(createErrorResponse("Database error")));
             e.printStackTrace();
@@ -71,7 +76,7 @@ public class OrdersCRUD extends HttpServlet {
         orderUpdateValues.put("UpdateDate", request.getParameter("updateDate"));
         orderUpdateValues.put("UpdateDetails", request.getParameter("updateDetails"));
 
-        int rowsAffected = MySQLDataStoreUtilities.updateRecord("OrderUpdates", orderUpdateValues, "UpdateID = " + updateId);
+        int rowsAffected = MySQLDataStoreUtilities.updateRecord("OrderUpdates", orderUpdateValues, Where.eq("UpdateID", updateId));
         JsonObject responseJson = new JsonObject();
         responseJson.addProperty("message", "Order Update updated. Rows affected: " + rowsAffected);
         response.getWriter().write(gson.toJson(responseJson));
@@ -79,7 +84,7 @@ public class OrdersCRUD extends HttpServlet {
 
     private void deleteOrderUpdate(HttpServletRequest request, HttpServletResponse response) throws SQLException, IOException {
         int updateId = Integer.parseInt(request.getParameter("updateId"));
-        int rowsAffected = MySQLDataStoreUtilities.deleteRecord("OrderUpdates", "UpdateID = " + updateId);
+        int rowsAffected = MySQLDataStoreUtilities.deleteRecord("OrderUpdates", Where.eq("UpdateID", updateId));
         JsonObject responseJson = new JsonObject();
         responseJson.addProperty("message", "Order Update deleted. Rows affected: " + rowsAffected);
         response.getWriter().write(gson.toJson(responseJson));
@@ -4,6 +4,7 @@ import javax.servlet.*;
 import javax.servlet.http.*;
 import javax.servlet.annotation.*;
 import utilities.MySQLDataStoreUtilities;
+import utilities.Where;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.TypeAdapter;
@@ -45,7 +46,7 @@ public class OrdersServlet extends HttpServlet {
             String orderId = UUID.randomUUID().toString();
             LocalDateTime purchaseDate = LocalDateTime.now();
 
-            List<String> insertedTransactionIds = new ArrayList<>();
+            List<Map<String, Object>> transactionRows = new ArrayList<>();
 
             for (Map<String, Object> product : products) {
                 Map<String, Object> transactionValues = new HashMap<>();
@@ -71,8 +72,7 @@ public class OrdersServlet extends HttpServlet {
                 transactionValues.put("CreditCardNumber", orderData.get("creditCardNumber"));
                 transactionValues.put("OrderStatus", "Pending");
 
-                int transactionId = MySQLDataStoreUtilities.insertRecord("Transactions", transactionValues);
-                insertedTransactionIds.add(String.valueOf(transactionId));
+                transactionRows.add(transactionValues);
             }
 
             // Insert into OrderUpdates table
@@ -82,7 +82,17 @@ public class OrdersServlet extends HttpServlet {
             orderUpdateValues.put("UpdateDate", purchaseDate);
             orderUpdateValues.put("UpdateDetails", "Order created with " + products.size() + " product(s)");
 
-            MySQLDataStoreUtilities.insertRecord("OrderUpdates", orderUpdateValues);
+            // Line items (one batched multi-row insert) and the audit row commit together
+            int[] transactionIds = MySQLDataStoreUtilities.inTransaction(() -> {
+                int[] ids = MySQLDataStoreUtilities.insertRecords("Transactions", transactionRows);
+                MySQLDataStoreUtilities.insertRecord("OrderUpdates", orderUpdateValues);
+                return ids;
+            });
+
+            List<String> insertedTransactionIds = new ArrayList<>();
+            for (int transactionId : transactionIds) {
+                insertedTransactionIds.add(String.valueOf(transactionId));
+            }
 
             Map<String, Object> responseData = new HashMap<>();
             responseData.put("success", true);
@@ -109,21 +119,24 @@ public class OrdersServlet extends HttpServlet {
                 return;
             }
 
-            // Update Transactions table
+            // Update Transactions table and record the change in OrderUpdates as one transaction
             Map<String, Object> updateValues = new HashMap<>();
             updateValues.put("OrderStatus", "Cancelled");
-            int rowsAffected = MySQLDataStoreUtilities.updateRecord("Transactions", updateValues, "OrderID = '" + orderId + "'");
+            int rowsAffected = MySQLDataStoreUtilities.inTransaction(() -> {
+                int updated = MySQLDataStoreUtilities.updateRecord("Transactions", updateValues, Where.eq("OrderID", orderId));
+                if (updated > 0) {
+                    Map<String, Object> orderUpdateValues = new HashMap<>();
+                    orderUpdateValues.put("OrderID", orderId);
+                    orderUpdateValues.put("UpdateType", "Update");
+                    orderUpdateValues.put("UpdateDate", LocalDateTime.now());
+                    orderUpdateValues.put("UpdateDetails", "Order cancelled");
+
+                    MySQLDataStoreUtilities.insertRecord("OrderUpdates", orderUpdateValues);
+                }
+                return updated;
+            });
 
             if (rowsAffected > 0) {
-                // Insert into OrderUpdates table
-                Map<String, Object> orderUpdateValues = new HashMap<>();
-                orderUpdateValues.put("OrderID", orderId);
-                orderUpdateValues.put("UpdateType", "Update");
-                orderUpdateValues.put("UpdateDate", LocalDateTime.now());
-                orderUpdateValues.put("UpdateDetails", "Order cancelled");
-
-                MySQLDataStoreUtilities.insertRecord("OrderUpdates", orderUpdateValues);
-
                 sendSuccessResponse(response, "Order cancelled successfully");
             } else {
                 sendErrorResponse(response, "Order not found");
@@ -140,16 +153,25 @@ public class OrdersServlet extends HttpServlet {
         response.setCharacterEncoding("UTF-8");
 
         try {
-            String whereClause = userId != null && !userId.isEmpty() ? 
-                "CustomerID = " + userId : null;
-
-            List<Map<String, Object>> orders = MySQLDataStoreUtilities.getRecords("Transactions", whereClause);
+            Where where = userId != null && !userId.isEmpty() ? Where.eq("CustomerID", userId) : null;
+
+            // Orders are written out as they are read instead of being collected first
+            JsonWriter jsonWriter = new JsonWriter(response.getWriter());
+            boolean[] started = {false};
+            int orderCount = MySQLDataStoreUtilities.streamRecords("Transactions", where, order -> {
+                if (!started[0]) {
+                    jsonWriter.beginObject();
+                    jsonWriter.name("success").value(true);
+                    jsonWriter.name("orders").beginArray();
+                    started[0] = true;
+                }
+                gson.toJson(order, Map.class, jsonWriter);
+            });
 
-            if (!orders.isEmpty()) {
-                Map<String, Object> responseData = new HashMap<>();
-                responseData.put("success", true);
-                responseData.put("orders", orders);
-                response.getWriter().write(gson.toJson(responseData));
+            if (orderCount > 0) {
+                jsonWriter.endArray();
+                jsonWriter.endObject();
+                jsonWriter.flush();
             } else {
                 if (userId != null && !userId.isEmpty()) {
                     sendErrorResponse(response, "No orders found for the given user ID");
@@ -158,6 +180,11 @@ public class OrdersServlet extends HttpServlet {
                 }
             }
         } catch (SQLException e) {
+            if (response.isCommitted()) {
+                e.printStackTrace();
+                return;
+            }
+            response.resetBuffer();
             sendErrorResponse(response, "Database error: " + e.getMessage());
         }
     }
@@ -6,39 +6,39 @@ import javax.servlet.http.*;
 import javax.servlet.annotation.*;
 import java.util.*;
 import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 import org.bson.Document;
 import org.bson.types.ObjectId;
 import org.bson.types.Decimal128;
-import com.mongodb.client.MongoClients;
-import com.mongodb.client.MongoClient;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteError;
 import com.mongodb.client.MongoCollection;
-import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertOneModel;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
 import com.mongodb.client.result.InsertOneResult;
-import com.mongodb.client.result.UpdateResult;
-import com.mongodb.client.result.DeleteResult;
+import utilities.MongoDBDataStoreUtilities;
 
 @WebServlet("/api/productReviews/*")
 public class ProductReviewsCRUD extends HttpServlet {
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 500;
+    private static final int BULK_CHUNK_SIZE = 1000;
+
     private Gson gson = new Gson();
-    private MongoClient mongoClient;
-    private MongoDatabase database;
     private MongoCollection<Document> productReviewsCollection;
 
+    // The client behind the collection is shared and closed by DataStoreContextListener.
     @Override
     public void init() throws ServletException {
-        mongoClient = MongoClients.create("mongodb://localhost:27017");
-        database = mongoClient.getDatabase("smarthomes");
-        productReviewsCollection = database.getCollection("productReviews");
-    }
-
-    @Override
-    public void destroy() {
-        if (mongoClient != null) {
-            mongoClient.close();
-        }
+        productReviewsCollection = MongoDBDataStoreUtilities.getCollection();
     }
 
     protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
@@ -53,6 +53,9 @@ public class ProductReviewsCRUD extends HttpServlet {
                 case "create":
                     out.print(createProductReview(request));
                     break;
+                case "bulk":
+                    bulkCreateProductReviews(request, out);
+                    break;
                 case "update":
                     out.print(updateProductReview(request));
                     break;
@@ -69,15 +72,93 @@ public class ProductReviewsCRUD extends HttpServlet {
         }
     }
 
+    // Filters: productId, productCategory, userID, minRating, maxRating. Results come in pages
+    // ordered by _id, DEFAULT_PAGE_SIZE reviews unless limit asks for more (up to MAX_PAGE_SIZE);
+    // pass the returned nextCursor as cursor for the next page, until it is null.
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
         response.setContentType("application/json");
         response.setCharacterEncoding("UTF-8");
         PrintWriter out = response.getWriter();
 
+        Document filter = new Document();
+        int pageSize;
+        try {
+            addEqualsFilter(filter, "productId", request.getParameter("productId"));
+            addEqualsFilter(filter, "productCategory", request.getParameter("productCategory"));
+            addEqualsFilter(filter, "userID", request.getParameter("userID"));
+
+            Document rating = new Document();
+            Integer minRating = intParameter(request, "minRating");
+            if (minRating != null) {
+                rating.append("$gte", minRating);
+            }
+            Integer maxRating = intParameter(request, "maxRating");
+            if (maxRating != null) {
+                rating.append("$lte", maxRating);
+            }
+            if (!rating.isEmpty()) {
+                filter.append("reviewRating", rating);
+            }
+
+            String cursor = request.getParameter("cursor");
+            if (cursor != null && !cursor.isEmpty()) {
+                if (!ObjectId.isValid(cursor)) {
+                    throw new IllegalArgumentException("Invalid cursor");
+                }
+                filter.append("_id", new Document("$gt", new ObjectId(cursor)));
+            }
+
+            Integer limit = intParameter(request, "limit");
+            if (limit != null && limit <= 0) {
+                throw new IllegalArgumentException("limit must be positive");
+            }
+            pageSize = Math.min(limit != null ? limit : DEFAULT_PAGE_SIZE, MAX_PAGE_SIZE);
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            out.print(gson.toJson(Map.of("error", e.getMessage())));
+            return;
+        }
+
+        // Reviews are written out as the cursor returns them instead of being collected first.
+        // One review past the page is fetched to tell whether there is a next page.
+        JsonWriter jsonWriter = new JsonWriter(out);
+        boolean[] started = {false};
+        Object[] lastId = {null};
+        int[] written = {0};
+        boolean[] hasMore = {false};
         try {
-            List<Document> reviews = productReviewsCollection.find().into(new ArrayList<>());
-            out.print(gson.toJson(Map.of("productReviews", reviews)));
+            MongoDBDataStoreUtilities.streamRecords(filter, null, Sorts.ascending("_id"), pageSize + 1, 0, review -> {
+                if (written[0] == pageSize) {
+                    hasMore[0] = true;
+                    return;
+                }
+                try {
+                    if (!started[0]) {
+                        jsonWriter.beginObject();
+                        jsonWriter.name("productReviews").beginArray();
+                        started[0] = true;
+                    }
+                    gson.toJson(review, Map.class, jsonWriter);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                lastId[0] = review.get("_id");
+                written[0]++;
+            });
+
+            if (!started[0]) {
+                jsonWriter.beginObject();
+                jsonWriter.name("productReviews").beginArray();
+            }
+            jsonWriter.endArray();
+            jsonWriter.name("nextCursor").value(hasMore[0] && lastId[0] instanceof ObjectId ? ((ObjectId) lastId[0]).toHexString() : null);
+            jsonWriter.endObject();
+            jsonWriter.flush();
         } catch (Exception e) {
+            if (started[0]) {
+                // Part of the page is already on the wire; the truncated body is all we can do
+                throw new ServletException("Failed while streaming product reviews", e);
+            }
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             out.print(gson.toJson(Map.of("error", "Database error: " + e.getMessage())));
         }
@@ -85,8 +166,136 @@ public class ProductReviewsCRUD extends HttpServlet {
 
     private String createProductReview(HttpServletRequest request) throws IOException {
         JsonObject jsonObject = readJsonFromRequest(request);
+        Document review = reviewFromJson(jsonObject, new Date());
+        InsertOneResult result = productReviewsCollection.insertOne(review);
+        adjustRatingSummaries(Collections.singletonList(review), 1);
+        return gson.toJson(Map.of("message", "Product review created successfully", "insertedId", result.getInsertedId()));
+    }
+
+    // Body is NDJSON, one review per line in the same shape as "create"; a reviewDate of
+    // yyyy-MM-dd or an ISO instant is kept, otherwise the review is dated now. Lines are
+    // inserted in unordered bulk writes of BULK_CHUNK_SIZE, so one bad review does not stop the
+    // rest. The response lists one result per non-blank line, written as each chunk completes:
+    // {"results": [{"line": 1, "insertedId": ...} | {"line": 2, "error": ...}], "inserted": n, "failed": n}
+    private void bulkCreateProductReviews(HttpServletRequest request, PrintWriter out) throws IOException {
+        BufferedReader reader = request.getReader();
+        JsonWriter jsonWriter = new JsonWriter(out);
+        jsonWriter.beginObject();
+        jsonWriter.name("results").beginArray();
+
+        List<Integer> lines = new ArrayList<>();
+        List<Object> chunk = new ArrayList<>();
+        long[] totals = {0, 0};
+        int lineNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            lines.add(lineNumber);
+            chunk.add(parseBulkReview(line));
+            if (chunk.size() == BULK_CHUNK_SIZE) {
+                writeBulkChunk(lines, chunk, jsonWriter, totals);
+            }
+        }
+        writeBulkChunk(lines, chunk, jsonWriter, totals);
+
+        jsonWriter.endArray();
+        jsonWriter.name("inserted").value(totals[0]);
+        jsonWriter.name("failed").value(totals[1]);
+        jsonWriter.endObject();
+        jsonWriter.flush();
+    }
+
+    // A review Document, or the validation message for a line that cannot be inserted.
+    private Object parseBulkReview(String line) {
+        try {
+            JsonObject json = gson.fromJson(line, JsonObject.class);
+            if (json == null) {
+                return "Review must be a JSON object";
+            }
+            if (getStringOrNull(json, "productId") == null) {
+                return "productId is required";
+            }
+            Integer rating = getIntegerOrNull(json, "reviewRating");
+            if (rating == null || rating < 1 || rating > 5) {
+                return "reviewRating must be between 1 and 5";
+            }
+            Date reviewDate = getDateOrNull(json, "reviewDate");
+            return reviewFromJson(json, reviewDate != null ? reviewDate : new Date());
+        } catch (RuntimeException e) {
+            return "Invalid review: " + e.getMessage();
+        }
+    }
+
+    // Inserts the chunk's valid reviews in one unordered bulkWrite, writes a result per line
+    // in line order, and clears the chunk.
+    private void writeBulkChunk(List<Integer> lines, List<Object> chunk, JsonWriter jsonWriter, long[] totals) throws IOException {
+        List<InsertOneModel<Document>> models = new ArrayList<>();
+        List<Integer> modelItems = new ArrayList<>();
+        for (int i = 0; i < chunk.size(); i++) {
+            if (chunk.get(i) instanceof Document) {
+                models.add(new InsertOneModel<>((Document) chunk.get(i)));
+                modelItems.add(i);
+            }
+        }
+
+        Map<Integer, String> errors = new HashMap<>();
+        List<Document> inserted = new ArrayList<>();
+        if (!models.isEmpty()) {
+            try {
+                productReviewsCollection.bulkWrite(models, new BulkWriteOptions().ordered(false));
+            } catch (MongoBulkWriteException e) {
+                for (BulkWriteError error : e.getWriteErrors()) {
+                    errors.put(modelItems.get(error.getIndex()), error.getMessage());
+                }
+            } catch (MongoException e) {
+                // Nothing is known about which reviews made it, so the whole chunk is reported failed
+                for (Integer item : modelItems) {
+                    errors.put(item, "Database error: " + e.getMessage());
+                }
+            }
+            for (Integer item : modelItems) {
+                if (!errors.containsKey(item)) {
+                    inserted.add((Document) chunk.get(item));
+                }
+            }
+            adjustRatingSummaries(inserted, 1);
+        }
+
+        for (int i = 0; i < chunk.size(); i++) {
+            Object item = chunk.get(i);
+            String error = item instanceof Document ? errors.get(i) : (String) item;
+            jsonWriter.beginObject();
+            jsonWriter.name("line").value(lines.get(i));
+            if (error == null) {
+                jsonWriter.name("insertedId").value(((Document) item).getObjectId("_id").toHexString());
+                totals[0]++;
+            } else {
+                jsonWriter.name("error").value(error);
+                totals[1]++;
+            }
+            jsonWriter.endObject();
+        }
+        jsonWriter.flush();
+        lines.clear();
+        chunk.clear();
+    }
+
+    // The review itself is already written, so a failed summary update is logged rather than
+    // reported; rebuilding the summaries (MongoDBDataStoreUtilities --rebuild-rating-summaries)
+    // corrects any drift.
+    private void adjustRatingSummaries(List<Document> reviews, int delta) {
+        try {
+            MongoDBDataStoreUtilities.adjustRatingSummaries(reviews, delta);
+        } catch (MongoException e) {
+            System.err.println("Could not update rating summaries: " + e.getMessage());
+        }
+    }
 
-        Document review = new Document()
+    private Document reviewFromJson(JsonObject jsonObject, Date reviewDate) {
+        return new Document()
             .append("productId", getStringOrNull(jsonObject, "productId"))
             .append("productModelName", getStringOrNull(jsonObject, "productModelName"))
             .append("productCategory", getStringOrNull(jsonObject, "productCategory"))
@@ -103,11 +312,8 @@ public class ProductReviewsCRUD extends HttpServlet {
             .append("userGender", getStringOrNull(jsonObject, "userGender"))
             .append("userOccupation", getStringOrNull(jsonObject, "userOccupation"))
             .append("reviewRating", getIntegerOrNull(jsonObject, "reviewRating"))
-            .append("reviewDate", new Date())
+            .append("reviewDate", reviewDate)
             .append("reviewText", getStringOrNull(jsonObject, "reviewText"));
-
-        InsertOneResult result = productReviewsCollection.insertOne(review);
-        return gson.toJson(Map.of("message", "Product review created successfully", "insertedId", result.getInsertedId()));
     }
 
     private String updateProductReview(HttpServletRequest request) throws IOException {
@@ -137,12 +343,18 @@ public class ProductReviewsCRUD extends HttpServlet {
             .append("reviewRating", getIntegerOrNull(jsonObject, "reviewRating"))
             .append("reviewText", getStringOrNull(jsonObject, "reviewText"));
 
-        UpdateResult result = productReviewsCollection.updateOne(
+        // The previous version is needed to move the rating between summaries
+        Document before = productReviewsCollection.findOneAndUpdate(
             Filters.eq("_id", new ObjectId(reviewId)),
             new Document("$set", update)
         );
+        if (before != null && !(Objects.equals(before.get("productId"), update.get("productId"))
+                && Objects.equals(before.get("reviewRating"), update.get("reviewRating")))) {
+            adjustRatingSummaries(Collections.singletonList(before), -1);
+            adjustRatingSummaries(Collections.singletonList(update), 1);
+        }
 
-        return gson.toJson(Map.of("message", "Product review updated successfully", "modifiedCount", result.getModifiedCount()));
+        return gson.toJson(Map.of("message", "Product review updated successfully", "modifiedCount", before != null ? 1 : 0));
     }
 
     private String deleteProductReview(HttpServletRequest request) throws IOException {
@@ -153,8 +365,29 @@ public class ProductReviewsCRUD extends HttpServlet {
             throw new IllegalArgumentException("Review ID is required for delete operation");
         }
 
-        DeleteResult result = productReviewsCollection.deleteOne(Filters.eq("_id", new ObjectId(reviewId)));
-        return gson.toJson(Map.of("message", "Product review deleted successfully", "deletedCount", result.getDeletedCount()));
+        Document deleted = productReviewsCollection.findOneAndDelete(Filters.eq("_id", new ObjectId(reviewId)));
+        if (deleted != null) {
+            adjustRatingSummaries(Collections.singletonList(deleted), -1);
+        }
+        return gson.toJson(Map.of("message", "Product review deleted successfully", "deletedCount", deleted != null ? 1 : 0));
+    }
+
+    private void addEqualsFilter(Document filter, String field, String value) {
+        if (value != null && !value.isEmpty()) {
+            filter.append(field, value);
+        }
+    }
+
+    private Integer intParameter(HttpServletRequest request, String name) {
+        String value = request.getParameter(name);
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + ": " + value);
+        }
     }
 
     private JsonObject readJsonFromRequest(HttpServletRequest request) throws IOException {
@@ -182,6 +415,17 @@ public class ProductReviewsCRUD extends HttpServlet {
         return null;
     }
 
+    private Date getDateOrNull(JsonObject json, String key) {
+        String value = getStringOrNull(json, key);
+        if (value == null) {
+            return null;
+        }
+        if (value.length() == 10) {
+            return Date.from(LocalDate.parse(value).atStartOfDay(ZoneOffset.UTC).toInstant());
+        }
+        return Date.from(Instant.parse(value));
+    }
+
     private Boolean getBooleanOrNull(JsonObject json, String key) {
         return json.has(key) && !json.get(key).isJsonNull() ? json.get(key).getAsBoolean() : null;
     }
@@ -6,7 +6,10 @@ import javax.servlet.http.*;
 import javax.servlet.annotation.*;
 import java.sql.*;
 import java.util.*;
+import utilities.ConditionalGet;
 import utilities.MySQLDataStoreUtilities;
+import utilities.ProductCatalog;
+import utilities.Where;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 
@@ -43,8 +46,28 @@ public class ProductsCRUD extends HttpServlet {
         response.setContentType("application/json");
         response.setCharacterEncoding("UTF-8");
         try {
-            List<Map<String, Object>> products = MySQLDataStoreUtilities.getRecords("Products", null);
+            List<String> fields = MySQLDataStoreUtilities.parseColumns("Products", request.getParameter("fields"));
+            if (ConditionalGet.notModified(request, response, String.valueOf(ProductCatalog.getVersion()), ProductCatalog.getModifiedMillis())) {
+                return;
+            }
+            List<Map<String, Object>> products = ProductCatalog.getProducts();
+            if (fields != null) {
+                List<Map<String, Object>> projected = new ArrayList<>(products.size());
+                for (Map<String, Object> product : products) {
+                    Map<String, Object> row = new LinkedHashMap<>();
+                    for (String field : fields) {
+                        if (product.containsKey(field)) {
+                            row.put(field, product.get(field));
+                        }
+                    }
+                    projected.add(row);
+                }
+                products = projected;
+            }
             response.getWriter().write(gson.toJson(products));
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.getWriter().write(gson.toJson(createErrorResponse(e.getMessage())));
         } catch (SQLException e) {
             response.getWriter().write(gson.toJson(createErrorResponse("Database error")));
             e.printStackTrace();
@@ -64,6 +87,7 @@ public class ProductsCRUD extends HttpServlet {
         productValues.put("ProductDescription", request.getParameter("productDescription"));
 
         int productId = MySQLDataStoreUtilities.insertRecord("Products", productValues);
+        ProductCatalog.refreshProduct(productId);
         JsonObject responseJson = new JsonObject();
         responseJson.addProperty("message", "Product created with ID: " + productId);
         response.getWriter().write(gson.toJson(responseJson));
@@ -82,7 +106,8 @@ public class ProductsCRUD extends HttpServlet {
         productValues.put("ProductImage", request.getParameter("productImage"));
         productValues.put("ProductDescription", request.getParameter("productDescription"));
 
-        int rowsAffected = MySQLDataStoreUtilities.updateRecord("Products", productValues, "ProductID = " + productId);
+        int rowsAffected = MySQLDataStoreUtilities.updateRecord("Products", productValues, Where.eq("ProductID", productId));
+        ProductCatalog.refreshProduct(productId);
         JsonObject responseJson = new JsonObject();
         responseJson.addProperty("message", "Product updated. Rows affected: " + rowsAffected);
         response.getWriter().write(gson.toJson(responseJson));
@@ -90,7 +115,8 @@ public class ProductsCRUD extends HttpServlet {
 
     private void deleteProduct(HttpServletRequest request, HttpServletResponse response) throws SQLException, IOException {
         int productId = Integer.parseInt(request.getParameter("productId"));
-        int rowsAffected = MySQLDataStoreUtilities.deleteRecord("Products", "ProductID = " + productId);
+        int rowsAffected = MySQLDataStoreUtilities.deleteRecord("Products", Where.eq("ProductID", productId));
+        ProductCatalog.refreshProduct(productId);
         JsonObject responseJson = new JsonObject();
         responseJson.addProperty("message", "Product deleted. Rows affected: " + rowsAffected);
         response.getWriter().write(gson.toJson(responseJson));
@@ -3,29 +3,24 @@ import javax.servlet.*;
 import javax.servlet.http.*;
 import javax.servlet.annotation.WebServlet;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.sql.*;
 import utilities.MySQLDataStoreUtilities;
+import utilities.QueryStats;
+import utilities.Where;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
-import utilities.MongoDBDataStoreUtilities; 
-import org.bson.Document;
-import javax.xml.parsers.*;
-import javax.xml.transform.*;
-import javax.xml.transform.dom.*;
-import javax.xml.transform.stream.*;
-import org.w3c.dom.*;
+import utilities.ProductCatalog;
+import utilities.CatalogXmlWriter;
+import utilities.ConditionalGet;
+import utilities.SchemaMigrations;
 
 @WebServlet("/products/*")
 public class ProductsServlet extends HttpServlet {
     private static final long serialVersionUID = 1L;
-    private Gson gson = new Gson();
-    private String xmlFilePath;
+    private static final List<String> INVENTORY_COLUMNS = Arrays.asList("ProductModelName", "ProductPrice", "Inventory");
 
-    @Override
-    public void init() throws ServletException {
-        super.init();
-        xmlFilePath = getServletContext().getRealPath("/WEB-INF/ProductCatalog.xml");
-    }
+    private Gson gson = new Gson();
 
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
         response.setContentType("application/json");
@@ -36,38 +31,16 @@ public class ProductsServlet extends HttpServlet {
 
         try {
             if (pathInfo == null || pathInfo.equals("/")) {
-                String typeParam = request.getParameter("type");
-                List<Map<String, Object>> products;
-
-                if (typeParam != null && !typeParam.isEmpty()) {
-                    products = MySQLDataStoreUtilities.getRecords("Products", "ProductCategory = '" + typeParam + "'");
-                } else {
-                    products = MySQLDataStoreUtilities.getRecords("Products", null);
-                }
-
-                for (Map<String, Object> product : products) {
-                    String productId = product.get("ProductID").toString();
-                    List<Map<String, Object>> reviews = MongoDBDataStoreUtilities.getRecords(new Document("productId", productId));
-                    double ratingSum = 0;
-                    int totalRatings = reviews.size();
-
-                    for (Map<String, Object> review : reviews) {
-                        Object reviewRating = review.get("reviewRating");
-                        if (reviewRating instanceof Number) {
-                            ratingSum += ((Number) reviewRating).doubleValue();
-                        }
-                    }
-
-                    double ratingAvg = totalRatings > 0 ? ratingSum / totalRatings : 0;
-                    product.put("RatingAvg", ratingAvg);
-                    product.put("TotalRatings", totalRatings);
-
-                    List<Map<String, Object>> accessories = MySQLDataStoreUtilities.getRecords("ProductAccessories", "ProductID = " + productId);
-                    product.put("Accessories", accessories);
+                if (catalogNotModified(request, response, true)) {
+                    return;
                 }
-
+                // Accessories and ratings for the whole listing come back in one query each
+                List<Map<String, Object>> products = ProductCatalog.listProducts(request.getParameter("type"));
                 out.print(gson.toJson(products));
             } else if (pathInfo.equals("/inventory")) {
+                if (catalogNotModified(request, response, false)) {
+                    return;
+                }
                 handleInventoryRequest(response);
             } else if (pathInfo.equals("/sales-report")) {
                 handleSalesReportRequest(response);
@@ -75,11 +48,11 @@ public class ProductsServlet extends HttpServlet {
                 String[] splits = pathInfo.split("/");
                 if (splits.length == 2) {
                     int productId = Integer.parseInt(splits[1]);
-                    List<Map<String, Object>> products = MySQLDataStoreUtilities.getRecords("Products", "ProductID = " + productId);
-                    if (!products.isEmpty()) {
-                        Map<String, Object> product = products.get(0);
-                        List<Map<String, Object>> accessories = MySQLDataStoreUtilities.getRecords("ProductAccessories", "ProductID = " + productId);
-                        product.put("Accessories", accessories);
+                    if (catalogNotModified(request, response, false)) {
+                        return;
+                    }
+                    Map<String, Object> product = ProductCatalog.getProduct(productId);
+                    if (product != null) {
                         out.print(gson.toJson(product));
                     } else {
                         response.setStatus(HttpServletResponse.SC_NOT_FOUND);
@@ -97,43 +70,63 @@ public class ProductsServlet extends HttpServlet {
         out.flush();
     }
 
+    // Answers 304 when the client already has the current catalog version. The listing also
+    // carries RatingAvg/TotalRatings from MongoDB, so its validators cover when those last changed.
+    private boolean catalogNotModified(HttpServletRequest request, HttpServletResponse response, boolean withRatings) throws SQLException {
+        String version = String.valueOf(ProductCatalog.getVersion());
+        long modifiedMillis = ProductCatalog.getModifiedMillis();
+        if (withRatings) {
+            long ratingsModifiedMillis = ProductCatalog.getRatingsModifiedMillis();
+            version += "." + Long.toString(ratingsModifiedMillis, 36);
+            modifiedMillis = Math.max(modifiedMillis, ratingsModifiedMillis);
+        }
+        return ConditionalGet.notModified(request, response, version, modifiedMillis);
+    }
+
     private void handleInventoryRequest(HttpServletResponse response) throws SQLException, IOException {
         PrintWriter out = response.getWriter();
         Map<String, Object> inventoryData = new HashMap<>();
 
-        List<Map<String, Object>> allProducts = MySQLDataStoreUtilities.getRecords("Products", null);
-        inventoryData.put("allProducts", filterProductsForInventory(allProducts));
-
-        List<Map<String, Object>> productsOnSale = MySQLDataStoreUtilities.getRecords("Products", "ProductOnSale = true");
-        inventoryData.put("productsOnSale", filterProductsForInventory(productsOnSale));
+        // All three lists come from the cached catalog, trimmed to the inventory columns
+        List<Map<String, Object>> allProducts = new ArrayList<>();
+        List<Map<String, Object>> productsOnSale = new ArrayList<>();
+        List<Map<String, Object>> productsWithRebate = new ArrayList<>();
+        for (Map<String, Object> product : ProductCatalog.getProducts()) {
+            Map<String, Object> inventory = new LinkedHashMap<>();
+            for (String column : INVENTORY_COLUMNS) {
+                inventory.put(column, product.get(column));
+            }
+            allProducts.add(inventory);
+            if (isTrue(product.get("ProductOnSale"))) {
+                productsOnSale.add(inventory);
+            }
+            if (isTrue(product.get("ManufacturerRebate"))) {
+                productsWithRebate.add(inventory);
+            }
+        }
 
-        List<Map<String, Object>> productsWithRebate = MySQLDataStoreUtilities.getRecords("Products", "ManufacturerRebate = true");
-        inventoryData.put("productsWithRebate", filterProductsForInventory(productsWithRebate));
+        inventoryData.put("allProducts", allProducts);
+        inventoryData.put("productsOnSale", productsOnSale);
+        inventoryData.put("productsWithRebate", productsWithRebate);
 
         out.print(gson.toJson(inventoryData));
     }
 
-    private List<Map<String, Object>> filterProductsForInventory(List<Map<String, Object>> products) {
-        List<Map<String, Object>> filteredProducts = new ArrayList<>();
-        for (Map<String, Object> product : products) {
-            Map<String, Object> filteredProduct = new HashMap<>();
-            filteredProduct.put("ProductModelName", product.get("ProductModelName"));
-            filteredProduct.put("ProductPrice", product.get("ProductPrice"));
-            filteredProduct.put("Inventory", product.get("Inventory"));
-            filteredProducts.add(filteredProduct);
-        }
-        return filteredProducts;
+    // BOOLEAN columns come back as Boolean or, depending on driver settings, as a number
+    private static boolean isTrue(Object value) {
+        return value instanceof Boolean ? (Boolean) value : value instanceof Number && ((Number) value).intValue() != 0;
     }
 
     private void handleSalesReportRequest(HttpServletResponse response) throws SQLException, IOException {
         PrintWriter out = response.getWriter();
         Map<String, Object> salesData = new HashMap<>();
 
-        List<Map<String, Object>> productSales = getProductSales();
-        salesData.put("productSales", productSales);
+        // Both aggregates run in parallel
+        CompletableFuture<List<Map<String, Object>>> productSales = MySQLDataStoreUtilities.supplyAsync(this::getProductSales);
+        CompletableFuture<List<Map<String, Object>>> dailySales = MySQLDataStoreUtilities.supplyAsync(this::getDailySales);
 
-        List<Map<String, Object>> dailySales = getDailySales();
-        salesData.put("dailySales", dailySales);
+        salesData.put("productSales", MySQLDataStoreUtilities.await(productSales));
+        salesData.put("dailySales", MySQLDataStoreUtilities.await(dailySales));
 
         out.print(gson.toJson(salesData));
     }
@@ -157,9 +150,12 @@ public class ProductsServlet extends HttpServlet {
     }
 
     private List<Map<String, Object>> getDailySales() throws SQLException {
-        String sql = "SELECT DATE(PurchaseDate) as SaleDate, SUM(TotalSales) as TotalSales " +
+        // PurchaseDay is the stored DATE(PurchaseDate) column added by migration 2; its index
+        // covers this query. Until that migration has run the day is computed per row.
+        String day = SchemaMigrations.isApplied(2) ? "PurchaseDay" : "DATE(PurchaseDate)";
+        String sql = "SELECT " + day + " as SaleDate, SUM(TotalSales) as TotalSales " +
                      "FROM Transactions " +
-                     "GROUP BY DATE(PurchaseDate) " +
+                     "GROUP BY " + day + " " +
                      "ORDER BY SaleDate DESC";
 
         return executeQuery(sql, rs -> {
@@ -172,12 +168,20 @@ public class ProductsServlet extends HttpServlet {
 
     private List<Map<String, Object>> executeQuery(String sql, SQLResultMapper mapper) throws SQLException {
         List<Map<String, Object>> results = new ArrayList<>();
-        try (Connection conn = MySQLDataStoreUtilities.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql);
-             ResultSet rs = pstmt.executeQuery()) {
-            while (rs.next()) {
-                results.add(mapper.map(rs));
+        long requested = System.nanoTime();
+        long started = requested;
+        boolean failed = true;
+        try (Connection conn = MySQLDataStoreUtilities.getReadConnection()) {
+            started = System.nanoTime();
+            try (PreparedStatement pstmt = conn.prepareStatement(sql);
+                 ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    results.add(mapper.map(rs));
+                }
             }
+            failed = false;
+        } finally {
+            QueryStats.record(sql, null, requested, started, results.size(), failed);
         }
         return results;
     }
@@ -198,8 +202,8 @@ public class ProductsServlet extends HttpServlet {
         try {
             int productId = MySQLDataStoreUtilities.insertRecord("Products", filterProductForDatabase(newProduct));
             newProduct.put("ProductID", productId);
-            
-            appendProductToXML(newProduct);
+            ProductCatalog.refreshProduct(productId);
+            CatalogXmlWriter.append(newProduct);
 
             out.print(gson.toJson(newProduct));
             response.setStatus(HttpServletResponse.SC_CREATED);
@@ -228,15 +232,14 @@ public class ProductsServlet extends HttpServlet {
                 Map<String, Object> updatedProduct = gson.fromJson(reader, new TypeToken<Map<String, Object>>(){}.getType());
 
                 try {
-                    // Update XML first
-                    updateProductInXML(productId, updatedProduct);
-
-                    // Then update database
+                    Map<String, Object> before = ProductCatalog.findProduct(productId);
                     Map<String, Object> filteredProduct = filterProductForDatabase(updatedProduct);
-                    int rowsAffected = MySQLDataStoreUtilities.updateRecord("Products", filteredProduct, "ProductID = " + productId);
+                    int rowsAffected = MySQLDataStoreUtilities.updateRecord("Products", filteredProduct, Where.eq("ProductID", productId));
                     if (rowsAffected > 0) {
-                        List<Map<String, Object>> products = MySQLDataStoreUtilities.getRecords("Products", "ProductID = " + productId);
-                        out.print(gson.toJson(products.get(0)));
+                        ProductCatalog.refreshProduct(productId);
+                        Map<String, Object> product = ProductCatalog.findProduct(productId);
+                        CatalogXmlWriter.update(productId, before, product != null ? product : updatedProduct);
+                        out.print(gson.toJson(product));
                     } else {
                         response.setStatus(HttpServletResponse.SC_NOT_FOUND);
                         out.print("{\"error\": \"Product not found\"}");
@@ -267,34 +270,18 @@ public class ProductsServlet extends HttpServlet {
             String[] splits = pathInfo.split("/");
             if (splits.length == 2) {
                 int productId = Integer.parseInt(splits[1]);
-                boolean xmlDeleted = false;
                 try {
-                    // Delete from XML first
-                    deleteProductFromXML(productId);
-                    xmlDeleted = true;
-
-                    // Then delete from database
-                    int rowsAffected = MySQLDataStoreUtilities.deleteRecord("Products", "ProductID = " + productId);
+                    Map<String, Object> before = ProductCatalog.findProduct(productId);
+                    int rowsAffected = MySQLDataStoreUtilities.deleteRecord("Products", Where.eq("ProductID", productId));
                     if (rowsAffected > 0) {
+                        ProductCatalog.refreshProduct(productId);
+                        CatalogXmlWriter.delete(productId, before);
                         out.print("{\"message\": \"Product deleted successfully\"}");
                     } else {
-                        // If product was not in database, revert XML deletion
-                        if (xmlDeleted) {
-                            revertXMLDeletion(productId);
-                        }
                         response.setStatus(HttpServletResponse.SC_NOT_FOUND);
                         out.print("{\"error\": \"Product not found in database\"}");
                     }
                 } catch (Exception e) {
-                    // If there was an error deleting from database, revert XML deletion
-                    if (xmlDeleted) {
-                        try {
-                            revertXMLDeletion(productId);
-                        } catch (Exception revertException) {
-                            // Log the revert exception
-                            e.addSuppressed(revertException);
-                        }
-                    }
                     response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
                     out.print("{\"error\": \"Error: " + e.getMessage() + "\"}");
                 }
@@ -313,194 +300,4 @@ public class ProductsServlet extends HttpServlet {
         filteredProduct.remove("Accessories");
         return filteredProduct;
     }
-
-    private void appendProductToXML(Map<String, Object> product) throws Exception {
-        DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
-        org.w3c.dom.Document doc;
-
-        File xmlFile = new File(xmlFilePath);
-        if (xmlFile.exists()) {
-            doc = docBuilder.parse(xmlFile);
-        } else {
-            doc = docBuilder.newDocument();
-            org.w3c.dom.Element rootElement = doc.createElement("ProductCatalog");
-            doc.appendChild(rootElement);
-        }
-
-        org.w3c.dom.Element productElement = doc.createElement("Product");
-
-        appendElement(doc, productElement, "ProductID", String.valueOf((int) Double.parseDouble(product.get("ProductID").toString())));
-        appendElement(doc, productElement, "ProductModelName", (String) product.get("ProductModelName"));
-        appendElement(doc, productElement, "ProductCategory", (String) product.get("ProductCategory"));
-appendElement(doc, productElement, "ProductPrice", product.get("ProductPrice").toString());
-        appendElement(doc, productElement, "ProductOnSale", product.get("ProductOnSale").toString());
-        appendElement(doc, productElement, "ManufacturerName", (String) product.get("ManufacturerName"));
-        appendElement(doc, productElement, "ManufacturerRebate", product.get("ManufacturerRebate").toString());
-        appendElement(doc, productElement, "Inventory", product.get("Inventory").toString());
-        appendElement(doc, productElement, "ProductImage", (String) product.get("ProductImage"));
-        appendElement(doc, productElement, "ProductDescription", (String) product.get("ProductDescription"));
-
-        doc.getDocumentElement().appendChild(productElement);
-
-        writeXmlFile(doc);
-    }
-
-    private void updateProductInXML(int productId, Map<String, Object> updatedProduct) throws Exception {
-        DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
-        org.w3c.dom.Document doc = docBuilder.parse(new File(xmlFilePath));
-
-        NodeList products = doc.getElementsByTagName("Product");
-        boolean productFound = false;
-
-        for (int i = 0; i < products.getLength(); i++) {
-            Element product = (Element) products.item(i);
-            NodeList productIdNodes = product.getElementsByTagName("ProductID");
-            
-            if (productIdNodes.getLength() > 0) {
-                String xmlProductId = productIdNodes.item(0).getTextContent();
-                // Compare the integer part of the ProductID
-                if (xmlProductId.split("\\.")[0].equals(String.valueOf(productId))) {
-                    updateProductElement(product, updatedProduct);
-                    productFound = true;
-                    break;
-                }
-            } else {
-                // If ProductID is not present, try to match based on other attributes
-                String productName = getElementTextContent(product, "ProductModelName");
-                String productCategory = getElementTextContent(product, "ProductCategory");
-                String productPrice = getElementTextContent(product, "ProductPrice");
-                
-                if (productName.equals(updatedProduct.get("ProductModelName")) &&
-                    productCategory.equals(updatedProduct.get("ProductCategory")) &&
-                    productPrice.equals(updatedProduct.get("ProductPrice").toString())) {
-                    
-                    updateProductElement(product, updatedProduct);
-                    productFound = true;
-                    break;
-                }
-            }
-        }
-
-        if (!productFound) {
-            // If the product wasn't found, add it as a new product
-            Element newProduct = doc.createElement("Product");
-            appendElement(doc, newProduct, "ProductID", String.valueOf(productId));
-            updateProductElement(newProduct, updatedProduct);
-            doc.getDocumentElement().appendChild(newProduct);
-        }
-
-        writeXmlFile(doc);
-    }
-
-    private void deleteProductFromXML(int productId) throws Exception {
-        DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
-        org.w3c.dom.Document doc = docBuilder.parse(new File(xmlFilePath));
-
-        NodeList products = doc.getElementsByTagName("Product");
-        boolean productFound = false;
-
-        for (int i = 0; i < products.getLength(); i++) {
-            Element product = (Element) products.item(i);
-            NodeList productIdNodes = product.getElementsByTagName("ProductID");
-            
-            if (productIdNodes.getLength() > 0) {
-                String xmlProductId = productIdNodes.item(0).getTextContent();
-                // Compare the integer part of the ProductID
-                if (xmlProductId.split("\\.")[0].equals(String.valueOf(productId))) {
-                    product.getParentNode().removeChild(product);
-                    productFound = true;
-                    break;
-                }
-            } else {
-                // If ProductID is not present, try to match based on other attributes
-                String productName = getElementTextContent(product, "ProductModelName");
-                String productCategory = getElementTextContent(product, "ProductCategory");
-                String productPrice = getElementTextContent(product, "ProductPrice");
-                
-                // Fetch the product details from the database
-                List<Map<String, Object>> dbProducts = MySQLDataStoreUtilities.getRecords("Products", "ProductID = " + productId);
-                if (!dbProducts.isEmpty()) {
-                    Map<String, Object> dbProduct = dbProducts.get(0);
-                    
-                    // Compare the XML product with the database product
-                    if (productName.equals(dbProduct.get("ProductModelName")) &&
-                        productCategory.equals(dbProduct.get("ProductCategory")) &&
-                        productPrice.equals(dbProduct.get("ProductPrice").toString())) {
-                        
-                        product.getParentNode().removeChild(product);
-                        productFound = true;
-                        break;
-                    }
-                }
-            }
-        }
-
-        if (!productFound) {
-            throw new Exception("Product with ID " + productId + " not found in XML file");
-        }
-
-        writeXmlFile(doc);
-    }
-
-    private void revertXMLDeletion(int productId) throws Exception {
-        // Retrieve the product data from the database
-        List<Map<String, Object>> products = MySQLDataStoreUtilities.getRecords("Products", "ProductID = " + productId);
-        if (!products.isEmpty()) {
-            Map<String, Object> product = products.get(0);
-            // Re-add the product to the XML file
-            appendProductToXML(product);
-        } else {
-            throw new Exception("Unable to revert XML deletion: Product not found in database");
-        }
-    }
-
-    private void updateProductElement(Element product, Map<String, Object> updatedProduct) {
-        updateElement(product, "ProductID", String.valueOf((int) Double.parseDouble(updatedProduct.get("ProductID").toString())));
-        updateElement(product, "ProductModelName", (String) updatedProduct.get("ProductModelName"));
-        updateElement(product, "ProductCategory", (String) updatedProduct.get("ProductCategory"));
-        updateElement(product, "ProductPrice", updatedProduct.get("ProductPrice").toString());
-        updateElement(product, "ProductOnSale", updatedProduct.get("ProductOnSale").toString());
-        updateElement(product, "ManufacturerName", (String) updatedProduct.get("ManufacturerName"));
-        updateElement(product, "ManufacturerRebate", updatedProduct.get("ManufacturerRebate").toString());
-        updateElement(product, "Inventory", updatedProduct.get("Inventory").toString());
-        updateElement(product, "ProductImage", (String) updatedProduct.get("ProductImage"));
-        updateElement(product, "ProductDescription", (String) updatedProduct.get("ProductDescription"));
-    }
-
-    private void appendElement(org.w3c.dom.Document doc, Element parent, String elementName, String textContent) {
-        Element element = doc.createElement(elementName);
-        element.setTextContent(textContent);
-        parent.appendChild(element);
-    }
-
-    private void updateElement(Element parent, String elementName, String textContent) {
-        NodeList elements = parent.getElementsByTagName(elementName);
-        if (elements.getLength() > 0) {
-            elements.item(0).setTextContent(textContent);
-        } else {
-            Element newElement = parent.getOwnerDocument().createElement(elementName);
-            newElement.setTextContent(textContent);
-            parent.appendChild(newElement);
-        }
-    }
-
-    private String getElementTextContent(Element parent, String elementName) {
-        NodeList elements = parent.getElementsByTagName(elementName);
-        if (elements.getLength() > 0) {
-            return elements.item(0).getTextContent();
-        }
-        return "";
-    }
-
-    private void writeXmlFile(org.w3c.dom.Document doc) throws TransformerException {
-        TransformerFactory transformerFactory = TransformerFactory.newInstance();
-        Transformer transformer = transformerFactory.newTransformer();
-        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-        DOMSource source = new DOMSource(doc);
-        StreamResult result = new StreamResult(new File(xmlFilePath));
-        transformer.transform(source, result);
-    }
-}
\ No newline at end of file
+}
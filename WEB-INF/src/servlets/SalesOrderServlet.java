@@ -4,8 +4,10 @@ import javax.servlet.*;
 import javax.servlet.http.*;
 import javax.servlet.annotation.*;
 import utilities.MySQLDataStoreUtilities;
+import utilities.Where;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonWriter;
 import java.sql.SQLException;
 
 @WebServlet({"/salesOrder", "/salesOrder/*"})
@@ -27,15 +29,18 @@ public class SalesOrderServlet extends HttpServlet {
             orderData.put("PurchaseDate", new java.sql.Timestamp(System.currentTimeMillis()));
             orderData.put("OrderStatus", "Pending");
 
-            int transactionId = MySQLDataStoreUtilities.insertRecord("Transactions", orderData);
-
-            // Insert into OrderUpdates table
+            // Insert into OrderUpdates table in the same transaction as the order itself
             Map<String, Object> updateData = new HashMap<>();
             updateData.put("OrderID", orderId);
             updateData.put("UpdateType", "Insert");
             updateData.put("UpdateDate", new java.sql.Timestamp(System.currentTimeMillis()));
             updateData.put("UpdateDetails", "Order created");
-            MySQLDataStoreUtilities.insertRecord("OrderUpdates", updateData);
+
+            int transactionId = MySQLDataStoreUtilities.inTransaction(() -> {
+                int id = MySQLDataStoreUtilities.insertRecord("Transactions", orderData);
+                MySQLDataStoreUtilities.insertRecord("OrderUpdates", updateData);
+                return id;
+            });
 
             Map<String, Object> responseData = new HashMap<>();
             responseData.put("success", true);
@@ -65,17 +70,21 @@ public class SalesOrderServlet extends HttpServlet {
             BufferedReader reader = request.getReader();
             Map<String, Object> updatedData = gson.fromJson(reader, new TypeToken<Map<String, Object>>(){}.getType());
 
-            int rowsAffected = MySQLDataStoreUtilities.updateRecord("Transactions", updatedData, "OrderID = '" + orderId + "'");
+            int rowsAffected = MySQLDataStoreUtilities.inTransaction(() -> {
+                int updated = MySQLDataStoreUtilities.updateRecord("Transactions", updatedData, Where.eq("OrderID", orderId));
+                if (updated > 0) {
+                    // Insert into OrderUpdates table
+                    Map<String, Object> updateData = new HashMap<>();
+                    updateData.put("OrderID", orderId);
+                    updateData.put("UpdateType", "Update");
+                    updateData.put("UpdateDate", new java.sql.Timestamp(System.currentTimeMillis()));
+                    updateData.put("UpdateDetails", "Order updated");
+                    MySQLDataStoreUtilities.insertRecord("OrderUpdates", updateData);
+                }
+                return updated;
+            });
 
             if (rowsAffected > 0) {
-                // Insert into OrderUpdates table
-                Map<String, Object> updateData = new HashMap<>();
-                updateData.put("OrderID", orderId);
-                updateData.put("UpdateType", "Update");
-                updateData.put("UpdateDate", new java.sql.Timestamp(System.currentTimeMillis()));
-                updateData.put("UpdateDetails", "Order updated");
-                MySQLDataStoreUtilities.insertRecord("OrderUpdates", updateData);
-
                 response.getWriter().write(gson.toJson(Collections.singletonMap("success", true)));
             } else {
                 response.setStatus(HttpServletResponse.SC_NOT_FOUND);
@@ -105,17 +114,21 @@ public class SalesOrderServlet extends HttpServlet {
             Map<String, Object> updateData = new HashMap<>();
             updateData.put("OrderStatus", "Cancelled");
             
-            int rowsAffected = MySQLDataStoreUtilities.updateRecord("Transactions", updateData, "OrderID = '" + orderId + "'");
+            int rowsAffected = MySQLDataStoreUtilities.inTransaction(() -> {
+                int updated = MySQLDataStoreUtilities.updateRecord("Transactions", updateData, Where.eq("OrderID", orderId));
+                if (updated > 0) {
+                    // Insert into OrderUpdates table
+                    Map<String, Object> updateData2 = new HashMap<>();
+                    updateData2.put("OrderID", orderId);
+                    updateData2.put("UpdateType", "Update");
+                    updateData2.put("UpdateDate", new java.sql.Timestamp(System.currentTimeMillis()));
+                    updateData2.put("UpdateDetails", "Order cancelled");
+                    MySQLDataStoreUtilities.insertRecord("OrderUpdates", updateData2);
+                }
+                return updated;
+            });
 
             if (rowsAffected > 0) {
-                // Insert into OrderUpdates table
-                Map<String, Object> updateData2 = new HashMap<>();
-                updateData2.put("OrderID", orderId);
-                updateData2.put("UpdateType", "Update");
-                updateData2.put("UpdateDate", new java.sql.Timestamp(System.currentTimeMillis()));
-                updateData2.put("UpdateDetails", "Order cancelled");
-                MySQLDataStoreUtilities.insertRecord("OrderUpdates", updateData2);
-
                 response.getWriter().write(gson.toJson(Collections.singletonMap("success", true)));
             } else {
                 response.setStatus(HttpServletResponse.SC_NOT_FOUND);
@@ -135,23 +148,43 @@ public class SalesOrderServlet extends HttpServlet {
         PrintWriter out = response.getWriter();
 
         try {
-            List<Map<String, Object>> orders;
             if (pathInfo == null || pathInfo.equals("/")) {
-                // Get all orders
-                orders = MySQLDataStoreUtilities.getRecords("Transactions", null);
+                // Get all orders, written out as they are read
+                JsonWriter jsonWriter = new JsonWriter(out);
+                boolean[] started = {false};
+                int orderCount = MySQLDataStoreUtilities.streamRecords("Transactions", null, order -> {
+                    if (!started[0]) {
+                        jsonWriter.beginArray();
+                        started[0] = true;
+                    }
+                    gson.toJson(order, Map.class, jsonWriter);
+                });
+
+                if (orderCount > 0) {
+                    jsonWriter.endArray();
+                    jsonWriter.flush();
+                } else {
+                    response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                    out.print(gson.toJson(Collections.singletonMap("error", "No orders found")));
+                }
             } else {
                 // Get specific order
                 String orderId = pathInfo.split("/")[1];
-                orders = MySQLDataStoreUtilities.getRecords("Transactions", "OrderID = '" + orderId + "'");
-            }
-
-            if (!orders.isEmpty()) {
-                out.print(gson.toJson(orders));
-            } else {
-                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
-                out.print(gson.toJson(Collections.singletonMap("error", "No orders found")));
+                List<Map<String, Object>> orders = MySQLDataStoreUtilities.getRecords("Transactions", Where.eq("OrderID", orderId));
+
+                if (!orders.isEmpty()) {
+                    out.print(gson.toJson(orders));
+                } else {
+                    response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                    out.print(gson.toJson(Collections.singletonMap("error", "No orders found")));
+                }
             }
         } catch (SQLException e) {
+            if (response.isCommitted()) {
+                e.printStackTrace();
+                return;
+            }
+            response.resetBuffer();
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             out.print(gson.toJson(Collections.singletonMap("error", "Database error: " + e.getMessage())));
         }
@@ -7,6 +7,7 @@ import javax.servlet.annotation.*;
 import java.sql.*;
 import java.util.*;
 import utilities.MySQLDataStoreUtilities;
+import utilities.Where;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 
@@ -43,8 +44,12 @@ public class SalesPersonsCRUD extends HttpServlet {
         response.setContentType("application/json");
         response.setCharacterEncoding("UTF-8");
         try {
-            List<Map<String, Object>> salesPersons = MySQLDataStoreUtilities.getRecords("SalesPersons", null);
+            List<String> fields = MySQLDataStoreUtilities.parseColumns("SalesPersons", request.getParameter("fields"));
+            List<Map<String, Object>> salesPersons = MySQLDataStoreUtilities.getRecords("SalesPersons", fields, null);
             response.getWriter().write(gson.toJson(salesPersons));
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.getWriter().write(gson.toJson(createErrorResponse(e.getMessage())));
         } catch (SQLException e) {
             response.getWriter().write(gson.toJson(createErrorResponse("Database error")));
             e.printStackTrace();
@@ -68,7 +73,7 @@ public class SalesPersonsCRUD extends HttpServlet {
         salesPersonValues.put("UserID", Integer.parseInt(request.getParameter("userId")));
         salesPersonValues.put("StoreID", Integer.parseInt(request.getParameter("storeId")));
 
-        int rowsAffected = MySQLDataStoreUtilities.updateRecord("SalesPersons", salesPersonValues, "SalesPersonID = " + salesPersonId);
+        int rowsAffected = MySQLDataStoreUtilities.updateRecord("SalesPersons", salesPersonValues, Where.eq("SalesPersonID", salesPersonId));
         JsonObject responseJson = new JsonObject();
         responseJson.addProperty("message", "Sales Person updated. Rows affected: " + rowsAffected);
         response.getWriter().write(gson.toJson(responseJson));
@@ -76,7 +81,7 @@ public class SalesPersonsCRUD extends HttpServlet {
 
     private void deleteSalesPerson(HttpServletRequest request, HttpServletResponse response) throws SQLException, IOException {
         int salesPersonId = Integer.parseInt(request.getParameter("salesPersonId"));
-        int rowsAffected = MySQLDataStoreUtilities.deleteRecord("SalesPersons", "SalesPersonID = " + salesPersonId);
+        int rowsAffected = MySQLDataStoreUtilities.deleteRecord("SalesPersons", Where.eq("SalesPersonID", salesPersonId));
         JsonObject responseJson = new JsonObject();
         responseJson.addProperty("message", "Sales Person deleted. Rows affected: " + rowsAffected);
         response.getWriter().write(gson.toJson(responseJson));
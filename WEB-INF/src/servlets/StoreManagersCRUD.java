@@ -7,6 +7,7 @@ import javax.servlet.annotation.*;
 import java.sql.*;
 import java.util.*;
 import utilities.MySQLDataStoreUtilities;
+import utilities.Where;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 
@@ -43,8 +44,12 @@ public class StoreManagersCRUD extends HttpServlet {
         response.setContentType("application/json");
         response.setCharacterEncoding("UTF-8");
         try {
-            List<Map<String, Object>> storeManagers = MySQLDataStoreUtilities.getRecords("StoreManagers", null);
+            List<String> fields = MySQLDataStoreUtilities.parseColumns("StoreManagers", request.getParameter("fields"));
+            List<Map<String, Object>> storeManagers = MySQLDataStoreUtilities.getRecords("StoreManagers", fields, null);
             response.getWriter().write(gson.toJson(storeManagers));
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.getWriter().write(gson.toJson(createErrorResponse(e.getMessage())));
         } catch (SQLException e) {
             response.getWriter().write(gson.toJson(createErrorResponse("Database error")));
             e.printStackTrace();
@@ -68,7 +73,7 @@ public class StoreManagersCRUD extends HttpServlet {
         storeManagerValues.put("UserID", Integer.parseInt(request.getParameter("userId")));
         storeManagerValues.put("StoreID", Integer.parseInt(request.getParameter("storeId")));
 
-        int rowsAffected = MySQLDataStoreUtilities.updateRecord("StoreManagers", storeManagerValues, "ManagerID = " + managerId);
+        int rowsAffected = MySQLDataStoreUtilities.updateRecord("StoreManagers", storeManagerValues, Where.eq("ManagerID", managerId));
         JsonObject responseJson = new JsonObject();
         responseJson.addProperty("message", "Store Manager updated. Rows affected: " + rowsAffected);
         response.getWriter().write(gson.toJson(responseJson));
@@ -76,7 +81,7 @@ public class StoreManagersCRUD extends HttpServlet {
 
     private void deleteStoreManager(HttpServletRequest request, HttpServletResponse response) throws SQLException, IOException {
         int managerId = Integer.parseInt(request.getParameter("managerId"));
-        int rowsAffected = MySQLDataStoreUtilities.deleteRecord("StoreManagers", "ManagerID = " + managerId);
+        int rowsAffected = MySQLDataStoreUtilities.deleteRecord("StoreManagers", Where.eq("ManagerID", managerId));
         JsonObject responseJson = new JsonObject();
         responseJson.addProperty("message", "Store Manager deleted. Rows affected: " + rowsAffected);
         response.getWriter().write(gson.toJson(responseJson));
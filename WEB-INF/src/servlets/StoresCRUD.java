@@ -8,6 +8,7 @@ import java.sql.*;
 import java.util.*;
 import com.google.gson.Gson;
 import utilities.MySQLDataStoreUtilities;
+import utilities.Where;
 
 @WebServlet("/api/stores/*")
 public class StoresCRUD extends HttpServlet {
@@ -44,14 +45,15 @@ public class StoresCRUD extends HttpServlet {
         String pathInfo = request.getPathInfo(); 
 
         try {
+            List<String> fields = MySQLDataStoreUtilities.parseColumns("Stores", request.getParameter("fields"));
             if (pathInfo == null || pathInfo.equals("/")) {
-                List<Map<String, Object>> stores = MySQLDataStoreUtilities.getRecords("Stores", null);
+                List<Map<String, Object>> stores = MySQLDataStoreUtilities.getRecords("Stores", fields, null);
                 response.getWriter().write(gson.toJson(stores));
             } else {
                 String[] pathParts = pathInfo.split("/");
                 if (pathParts.length > 1 && pathParts[1] != null && !pathParts[1].isEmpty()) {
                     int storeId = Integer.parseInt(pathParts[1]);
-                    Map<String, Object> store = getStoreById(storeId);
+                    Map<String, Object> store = getStoreById(storeId, fields);
 
                     if (store == null) {
                         response.setStatus(HttpServletResponse.SC_NOT_FOUND);
@@ -64,6 +66,9 @@ public class StoresCRUD extends HttpServlet {
                     response.getWriter().write(gson.toJson(new ErrorResponse("Invalid store ID")));
                 }
             }
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.getWriter().write(gson.toJson(new ErrorResponse(e.getMessage())));
         } catch (SQLException e) {
             response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, gson.toJson(new ErrorResponse("Database error")));
         }
@@ -90,18 +95,18 @@ public class StoresCRUD extends HttpServlet {
         storeValues.put("State", request.getParameter("state"));
         storeValues.put("ZipCode", request.getParameter("zipCode"));
 
-        int rowsAffected = MySQLDataStoreUtilities.updateRecord("Stores", storeValues, "StoreID = " + storeId);
+        int rowsAffected = MySQLDataStoreUtilities.updateRecord("Stores", storeValues, Where.eq("StoreID", storeId));
         response.getWriter().write(gson.toJson(new SuccessResponse("Store updated. Rows affected: " + rowsAffected)));
     }
 
     private void deleteStore(HttpServletRequest request, HttpServletResponse response) throws SQLException, IOException {
         int storeId = Integer.parseInt(request.getParameter("storeId"));
-        int rowsAffected = MySQLDataStoreUtilities.deleteRecord("Stores", "StoreID = " + storeId);
+        int rowsAffected = MySQLDataStoreUtilities.deleteRecord("Stores", Where.eq("StoreID", storeId));
         response.getWriter().write(gson.toJson(new SuccessResponse("Store deleted. Rows affected: " + rowsAffected)));
     }
 
-    private Map<String, Object> getStoreById(int storeId) throws SQLException {
-        List<Map<String, Object>> stores = MySQLDataStoreUtilities.getRecords("Stores", "StoreID = " + storeId);
+    private Map<String, Object> getStoreById(int storeId, List<String> fields) throws SQLException {
+        List<Map<String, Object>> stores = MySQLDataStoreUtilities.getRecords("Stores", fields, Where.eq("StoreID", storeId));
         if (stores.isEmpty()) {
             return null;
         } else {
@@ -7,6 +7,7 @@ import javax.servlet.annotation.WebServlet;
 import java.sql.*;
 import java.util.*;
 import utilities.MySQLDataStoreUtilities;
+import utilities.Where;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
@@ -44,17 +45,16 @@ public class TransactionsCRUD extends HttpServlet {
         String pathInfo = request.getPathInfo(); // Get the path after /api/transactions/
 
         try {
+            List<String> fields = MySQLDataStoreUtilities.parseColumns("Transactions", request.getParameter("fields"));
             if (pathInfo == null || pathInfo.equals("/")) {
-                // No transactionId specified, return all transactions
-                List<Map<String, Object>> transactions = MySQLDataStoreUtilities.getRecords("Transactions", null);
-                formatTransactionDates(transactions); // Format dates for all transactions
-                response.getWriter().write(convertToJson(transactions));
+                // No transactionId specified, stream all transactions as they are read
+                streamTransactions(response, fields);
             } else {
                 // transactionId is specified, retrieve the specific transaction
                 String[] pathParts = pathInfo.split("/");
                 if (pathParts.length > 1 && pathParts[1] != null && !pathParts[1].isEmpty()) {
                     int transactionId = Integer.parseInt(pathParts[1]);
-                    Map<String, Object> transaction = getTransactionById(transactionId);
+                    Map<String, Object> transaction = getTransactionById(transactionId, fields);
 
                     if (transaction == null) {
                         response.setStatus(HttpServletResponse.SC_NOT_FOUND);
@@ -68,25 +68,44 @@ public class TransactionsCRUD extends HttpServlet {
                     response.getWriter().write(createErrorResponse("Invalid transaction ID"));
                 }
             }
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.getWriter().write(createErrorResponse("Invalid request parameters"));
         } catch (SQLException e) {
+            if (response.isCommitted()) {
+                // Rows are already on the wire; all we can do is cut the response short.
+                e.printStackTrace();
+                return;
+            }
+            response.resetBuffer();
             response.getWriter().write(createErrorResponse("Database error"));
             e.printStackTrace();
         }
     }
 
+    private void streamTransactions(HttpServletResponse response, List<String> fields) throws SQLException, IOException {
+        PrintWriter out = response.getWriter();
+        StringBuilder jsonBuilder = new StringBuilder();
+        boolean[] first = {true};
+        out.write("[");
+        MySQLDataStoreUtilities.streamRecords("Transactions", fields, null, transaction -> {
+            formatTransactionDates(Collections.singletonList(transaction));
+            jsonBuilder.setLength(0);
+            if (!first[0]) {
+                jsonBuilder.append(",");
+            }
+            appendJson(jsonBuilder, transaction);
+            out.write(jsonBuilder.toString());
+            first[0] = false;
+        });
+        out.write("]");
+    }
+
     private String convertToJson(List<Map<String, Object>> transactions) {
         StringBuilder jsonBuilder = new StringBuilder();
         jsonBuilder.append("[");
         for (int i = 0; i < transactions.size(); i++) {
-            Map<String, Object> transaction = transactions.get(i);
-            jsonBuilder.append("{");
-            for (Map.Entry<String, Object> entry : transaction.entrySet()) {
-                jsonBuilder.append("\"").append(entry.getKey()).append("\":");
-                jsonBuilder.append("\"").append(entry.getValue()).append("\"");
-                jsonBuilder.append(",");
-            }
-            jsonBuilder.setLength(jsonBuilder.length() - 1); // Remove last comma
-            jsonBuilder.append("}");
+            appendJson(jsonBuilder, transactions.get(i));
             if (i < transactions.size() - 1) {
                 jsonBuilder.append(",");
             }
@@ -95,6 +114,17 @@ public class TransactionsCRUD extends HttpServlet {
         return jsonBuilder.toString();
     }
 
+    private void appendJson(StringBuilder jsonBuilder, Map<String, Object> transaction) {
+        jsonBuilder.append("{");
+        for (Map.Entry<String, Object> entry : transaction.entrySet()) {
+            jsonBuilder.append("\"").append(entry.getKey()).append("\":");
+            jsonBuilder.append("\"").append(entry.getValue()).append("\"");
+            jsonBuilder.append(",");
+        }
+        jsonBuilder.setLength(jsonBuilder.length() - 1); // Remove last comma
+        jsonBuilder.append("}");
+    }
+
     private String createErrorResponse(String message) {
         return "{\"error\":\"" + message + "\"}"; // Manually create JSON error response
     }
@@ -135,18 +165,18 @@ public class TransactionsCRUD extends HttpServlet {
         transactionValues.put("OrderStatus", request.getParameter("orderStatus"));
         transactionValues.put("Category", request.getParameter("category")); 
 
-        int rowsAffected = MySQLDataStoreUtilities.updateRecord("Transactions", transactionValues, "TransactionID = " + transactionId);
+        int rowsAffected = MySQLDataStoreUtilities.updateRecord("Transactions", transactionValues, Where.eq("TransactionID", transactionId));
         response.getWriter().write("{\"message\":\"Transaction updated. Rows affected: " + rowsAffected + "\"}");
     }
 
     private void deleteTransaction(HttpServletRequest request, HttpServletResponse response) throws SQLException, IOException {
         int transactionId = Integer.parseInt(request.getParameter("transactionId"));
-        int rowsAffected = MySQLDataStoreUtilities.deleteRecord("Transactions", "TransactionID = " + transactionId);
+        int rowsAffected = MySQLDataStoreUtilities.deleteRecord("Transactions", Where.eq("TransactionID", transactionId));
         response.getWriter().write("{\"message\":\"Transaction deleted. Rows affected: " + rowsAffected + "\"}");
     }
 
-    private Map<String, Object> getTransactionById(int transactionId) throws SQLException {
-        List<Map<String, Object>> transactions = MySQLDataStoreUtilities.getRecords("Transactions", "TransactionID = " + transactionId);
+    private Map<String, Object> getTransactionById(int transactionId, List<String> fields) throws SQLException {
+        List<Map<String, Object>> transactions = MySQLDataStoreUtilities.getRecords("Transactions", fields, Where.eq("TransactionID", transactionId));
         if (transactions.isEmpty()) {
             return null;
         } else {
@@ -5,13 +5,17 @@ import javax.servlet.annotation.WebServlet;
 import java.util.*;
 import java.sql.SQLException;
 import utilities.MySQLDataStoreUtilities;
+import utilities.ProductCatalog;
 import utilities.MongoDBDataStoreUtilities;
+import utilities.MongoDBDataStoreUtilities.RatingSummary;
 import com.google.gson.Gson;
-import org.bson.Document;
 
 @WebServlet("/trending")
 public class TrendingServlet extends HttpServlet {
     private static final long serialVersionUID = 1L;
+    private static final List<String> ZIP_CODE_COLUMNS = Arrays.asList("ShippingAddressZipCode", "StoreAddressZipCode");
+    private static final List<String> PRODUCT_ID_COLUMN = Collections.singletonList("ProductID");
+
     private Gson gson = new Gson();
 
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
@@ -43,44 +47,30 @@ public class TrendingServlet extends HttpServlet {
     }
 
     private List<Map<String, Object>> getTopLikedProducts() throws SQLException {
-        List<Map<String, Object>> allProducts = MySQLDataStoreUtilities.getRecords("Products", null);
-        List<Map<String, Object>> allReviews = MongoDBDataStoreUtilities.getAllRecords();
-        
-        Map<String, List<Integer>> productRatings = new HashMap<>();
-        for (Map<String, Object> review : allReviews) {
-            String productId = review.get("productId").toString();
-            int rating = ((Number) review.get("reviewRating")).intValue();
-            productRatings.computeIfAbsent(productId, k -> new ArrayList<>()).add(rating);
-        }
+        List<Map<String, Object>> allProducts = ProductCatalog.getProducts();
+        Map<String, RatingSummary> productRatings = MongoDBDataStoreUtilities.getRatingSummaries(null);
 
         for (Map<String, Object> product : allProducts) {
             String productId = product.get("ProductID").toString();
-            List<Integer> ratings = productRatings.get(productId);
-            if (ratings != null && !ratings.isEmpty()) {
-                double averageRating = ratings.stream().mapToInt(Integer::intValue).average().orElse(0.0);
-                product.put("RatingAvg", averageRating);
-                product.put("TotalRatings", ratings.size());
-            } else {
-                product.put("RatingAvg", 0.0);
-                product.put("TotalRatings", 0);
-            }
+            RatingSummary rating = productRatings.getOrDefault(productId, RatingSummary.NONE);
+            product.put("RatingAvg", rating.getAverage());
+            product.put("TotalRatings", rating.getCount());
         }
 
         allProducts.sort((p1, p2) -> Double.compare((Double)p2.get("RatingAvg"), (Double)p1.get("RatingAvg")));
         return allProducts.subList(0, Math.min(allProducts.size(), 5));
     }
 
-    private List<Map<String, Object>> getTopZipCodes() throws SQLException {
-        List<Map<String, Object>> allTransactions = MySQLDataStoreUtilities.getRecords("Transactions", null);
+    private List<Map<String, Object>> getTopZipCodes() throws SQLException, IOException {
         Map<String, Integer> zipCodeCounts = new HashMap<>();
 
-        for (Map<String, Object> transaction : allTransactions) {
+        MySQLDataStoreUtilities.streamRecords("Transactions", ZIP_CODE_COLUMNS, null, transaction -> {
             String zipCode = (String) transaction.get("ShippingAddressZipCode");
             if (zipCode == null) {
                 zipCode = (String) transaction.get("StoreAddressZipCode");
             }
             zipCodeCounts.put(zipCode, zipCodeCounts.getOrDefault(zipCode, 0) + 1);
-        }
+        });
 
         return zipCodeCounts.entrySet().stream()
             .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
@@ -94,42 +84,31 @@ public class TrendingServlet extends HttpServlet {
             .collect(java.util.stream.Collectors.toList());
     }
 
-    private List<Map<String, Object>> getTopSoldProducts() throws SQLException {
-        List<Map<String, Object>> allTransactions = MySQLDataStoreUtilities.getRecords("Transactions", null);
+    private List<Map<String, Object>> getTopSoldProducts() throws SQLException, IOException {
         Map<Integer, Integer> productSoldCounts = new HashMap<>();
 
-        for (Map<String, Object> transaction : allTransactions) {
+        MySQLDataStoreUtilities.streamRecords("Transactions", PRODUCT_ID_COLUMN, null, transaction -> {
             Integer productId = (Integer) transaction.get("ProductID");
             productSoldCounts.put(productId, productSoldCounts.getOrDefault(productId, 0) + 1);
-        }
+        });
 
         List<Map.Entry<Integer, Integer>> sortedProducts = new ArrayList<>(productSoldCounts.entrySet());
         sortedProducts.sort((e1, e2) -> e2.getValue().compareTo(e1.getValue()));
 
         List<Map<String, Object>> result = new ArrayList<>();
-        List<Map<String, Object>> allReviews = MongoDBDataStoreUtilities.getAllRecords();
-        Map<String, List<Integer>> productRatings = new HashMap<>();
-        
-        for (Map<String, Object> review : allReviews) {
-            String productId = review.get("productId").toString();
-            int rating = ((Number) review.get("reviewRating")).intValue();
-            productRatings.computeIfAbsent(productId, k -> new ArrayList<>()).add(rating);
+        List<String> topProductIds = new ArrayList<>();
+        for (int i = 0; i < Math.min(sortedProducts.size(), 5); i++) {
+            topProductIds.add(String.valueOf(sortedProducts.get(i).getKey()));
         }
+        Map<String, RatingSummary> productRatings = MongoDBDataStoreUtilities.getRatingSummaries(topProductIds);
 
         for (int i = 0; i < Math.min(sortedProducts.size(), 5); i++) {
             Integer productId = sortedProducts.get(i).getKey();
-            List<Map<String, Object>> productDetails = MySQLDataStoreUtilities.getRecords("Products", "ProductID = " + productId);
-            if (!productDetails.isEmpty()) {
-                Map<String, Object> product = productDetails.get(0);
+            Map<String, Object> product = ProductCatalog.findProduct(productId);
+            if (product != null) {
                 product.put("TotalSold", sortedProducts.get(i).getValue());
                 
-                List<Integer> ratings = productRatings.get(productId.toString());
-                if (ratings != null && !ratings.isEmpty()) {
-                    double averageRating = ratings.stream().mapToInt(Integer::intValue).average().orElse(0.0);
-                    product.put("RatingAvg", averageRating);
-                } else {
-                    product.put("RatingAvg", 0.0);
-                }
+                product.put("RatingAvg", productRatings.getOrDefault(String.valueOf(productId), RatingSummary.NONE).getAverage());
                 
                 result.add(product);
             }
@@ -7,6 +7,7 @@ import javax.servlet.annotation.*;
 import java.sql.*;
 import java.util.*;
 import utilities.MySQLDataStoreUtilities;
+import utilities.Where;
 import com.google.gson.Gson;
 
 @WebServlet("/api/users/*")
@@ -49,16 +50,17 @@ public class UsersCRUD extends HttpServlet {
         String pathInfo = request.getPathInfo(); // Get the path after /api/users/
 
         try {
+            List<String> fields = MySQLDataStoreUtilities.parseColumns("Users", request.getParameter("fields"));
             if (pathInfo == null || pathInfo.equals("/")) {
                 // No userId specified, return all users
-                List<Map<String, Object>> users = MySQLDataStoreUtilities.getRecords("Users", null);
+                List<Map<String, Object>> users = MySQLDataStoreUtilities.getRecords("Users", fields, null);
                 out.print(gson.toJson(Map.of("users", users)));
             } else {
                 // userId is specified, retrieve the specific user
                 String[] pathParts = pathInfo.split("/");
                 if (pathParts.length > 1 && pathParts[1] != null && !pathParts[1].isEmpty()) {
                     int userId = Integer.parseInt(pathParts[1]);
-                    Map<String, Object> user = getUserById(userId);
+                    Map<String, Object> user = getUserById(userId, fields);
 
                     if (user == null) {
                         response.setStatus(HttpServletResponse.SC_NOT_FOUND);
@@ -71,6 +73,9 @@ public class UsersCRUD extends HttpServlet {
                     out.print(gson.toJson(Map.of("error", "Invalid user ID")));
                 }
             }
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            out.print(gson.toJson(Map.of("error", e.getMessage())));
         } catch (SQLException e) {
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             out.print(gson.toJson(Map.of("error", "Database error: " + e.getMessage())));
@@ -116,18 +121,18 @@ public class UsersCRUD extends HttpServlet {
         userValues.put("Occupation", request.getParameter("occupation"));
         userValues.put("ProfilePicture", request.getParameter("profilePicture"));
 
-        int rowsAffected = MySQLDataStoreUtilities.updateRecord("Users", userValues, "UserID = " + userId);
+        int rowsAffected = MySQLDataStoreUtilities.updateRecord("Users", userValues, Where.eq("UserID", userId));
         return gson.toJson(Map.of("message", "User updated successfully", "rowsAffected", rowsAffected));
     }
 
     private String deleteUser(HttpServletRequest request) throws SQLException, IOException {
         int userId = Integer.parseInt(request.getParameter("userId"));
-        int rowsAffected = MySQLDataStoreUtilities.deleteRecord("Users", "UserID = " + userId);
+        int rowsAffected = MySQLDataStoreUtilities.deleteRecord("Users", Where.eq("UserID", userId));
         return gson.toJson(Map.of("message", "User deleted successfully", "rowsAffected", rowsAffected));
     }
 
-    private Map<String, Object> getUserById(int userId) throws SQLException {
-        List<Map<String, Object>> users = MySQLDataStoreUtilities.getRecords("Users", "UserID = " + userId);
+    private Map<String, Object> getUserById(int userId, List<String> fields) throws SQLException {
+        List<Map<String, Object>> users = MySQLDataStoreUtilities.getRecords("Users", fields, Where.eq("UserID", userId));
         if (users.isEmpty()) {
             return null;
         } else {
@@ -7,6 +7,7 @@ import java.sql.SQLException;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 import utilities.MySQLDataStoreUtilities;
+import utilities.Where;
 
 @WebServlet("/users/*")
 public class UsersServlet extends HttpServlet {
@@ -29,7 +30,7 @@ public class UsersServlet extends HttpServlet {
                 String[] splits = pathInfo.split("/");
                 if (splits.length == 2) {
                     int userId = Integer.parseInt(splits[1]);
-                    List<Map<String, Object>> users = MySQLDataStoreUtilities.getRecords("Users", "UserID = " + userId);
+                    List<Map<String, Object>> users = MySQLDataStoreUtilities.getRecords("Users", Where.eq("UserID", userId));
                     if (!users.isEmpty()) {
                         out.print(gson.toJson(users.get(0)));
                     } else {
@@ -86,9 +87,9 @@ public class UsersServlet extends HttpServlet {
                 Map<String, Object> updatedUser = gson.fromJson(reader, new TypeToken<Map<String, Object>>(){}.getType());
 
                 try {
-                    int rowsAffected = MySQLDataStoreUtilities.updateRecord("Users", updatedUser, "UserID = " + userId);
+                    int rowsAffected = MySQLDataStoreUtilities.updateRecord("Users", updatedUser, Where.eq("UserID", userId));
                     if (rowsAffected > 0) {
-                        List<Map<String, Object>> users = MySQLDataStoreUtilities.getRecords("Users", "UserID = " + userId);
+                        List<Map<String, Object>> users = MySQLDataStoreUtilities.getRecords("Users", Where.eq("UserID", userId));
                         out.print(gson.toJson(users.get(0)));
                     } else {
                         response.setStatus(HttpServletResponse.SC_NOT_FOUND);
@@ -121,7 +122,7 @@ public class UsersServlet extends HttpServlet {
             if (splits.length == 2) {
                 int userId = Integer.parseInt(splits[1]);
                 try {
-                    int rowsAffected = MySQLDataStoreUtilities.deleteRecord("Users", "UserID = " + userId);
+                    int rowsAffected = MySQLDataStoreUtilities.deleteRecord("Users", Where.eq("UserID", userId));
                     if (rowsAffected > 0) {
                         out.print("{\"message\": \"User deleted successfully\"}");
                     } else {
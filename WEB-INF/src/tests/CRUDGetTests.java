@@ -34,9 +34,15 @@ public class CRUDGetTests {
         passedTests += runTest("Store Managers GET", "/api/storeManagers", 200);
         passedTests += runTest("Store Managers GET by ID", "/api/storeManagers/1", 200);
         
+        passedTests += runTest("Products GET with fields", "/api/products?fields=ProductID,ProductModelName", 200);
+        passedTests += runTest("Transactions GET with fields", "/api/transactions?fields=TransactionID,OrderID", 200);
+        passedTests += runTest("Users GET with invalid fields", "/api/users?fields=UserID;DROP", 400);
+
         passedTests += runTest("Product Reviews GET", "/api/productReviews", 200);
         passedTests += runTest("Product Reviews GET by ID", "/api/productReviews/1", 200);
 
+        passedTests += runTest("Metrics GET", "/api/metrics", 200);
+
         System.out.println("🧪 Total Tests: " + totalTests);
         System.out.println("✅ Passed: " + passedTests);
         System.out.println("❌ Failed: " + (totalTests - passedTests));
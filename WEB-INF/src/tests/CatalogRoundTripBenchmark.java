@@ -0,0 +1,123 @@
+package tests;
+
+import java.sql.SQLException;
+import java.util.*;
+import utilities.MongoDBDataStoreUtilities;
+import utilities.MySQLDataStoreUtilities;
+import utilities.ProductCatalog;
+import utilities.QueryStats;
+
+// Guards the catalog listing against N+1 regressions with fixed round-trip budgets. A load of
+// the snapshot costs MySQL one statement for the products and one for the accessories, and a
+// listing adds one MongoDB checkout for the ratings of all its products (none when it is empty).
+// Every category listing and the full catalog is measured twice: with the snapshot dropped
+// before each call, so it pays the full load, and served from the snapshot. Needs the same MySQL
+// and MongoDB as the webapp; run with:
+//   java -cp "$COMPILED_CLASS_DIR:WEB-INF/lib/*" tests.CatalogRoundTripBenchmark
+// Exits with status 1 when any listing goes over its budget.
+public class CatalogRoundTripBenchmark {
+    private static final int MEASURED_ITERATIONS = 20;
+    private static final int MYSQL_STATEMENTS_PER_LOAD = 2;
+    private static final int MONGO_CHECKOUTS_PER_LISTING = 1;
+
+    public static void main(String[] args) throws SQLException {
+        try {
+            List<String> listings = new ArrayList<>();
+            for (Map<String, Object> row : MySQLDataStoreUtilities.getRecords("Products",
+                    Collections.singletonList("ProductCategory"), null)) {
+                Object category = row.get("ProductCategory");
+                if (category != null && !listings.contains(category.toString())) {
+                    listings.add(category.toString());
+                }
+            }
+            listings.add(null);
+
+            List<Result> results = new ArrayList<>();
+            for (String category : listings) {
+                listUncached(category);
+                results.add(measure(category, true));
+                results.add(measure(category, false));
+            }
+            results.sort(Comparator.comparingInt((Result r) -> r.products).thenComparing(r -> r.uncached));
+
+            boolean withinBudget = true;
+            System.out.println("🧪 " + listings.size() + " listings, " + MEASURED_ITERATIONS + " iterations each");
+            for (Result result : results) {
+                // Totals over all iterations, so a fraction of a round trip more per call still shows
+                boolean ok = result.mysqlRoundTrips <= (result.uncached ? MYSQL_STATEMENTS_PER_LOAD : 0) * MEASURED_ITERATIONS
+                        && result.mongoRoundTrips <= (result.products > 0 ? MONGO_CHECKOUTS_PER_LISTING : 0) * MEASURED_ITERATIONS;
+                withinBudget &= ok;
+                result.print(ok);
+            }
+
+            if (!withinBudget) {
+                System.out.printf("❌ A listing took more than %d MySQL statements per load or %d MongoDB checkout%n",
+                        MYSQL_STATEMENTS_PER_LOAD, MONGO_CHECKOUTS_PER_LISTING);
+                System.exit(1);
+            }
+            System.out.printf("🎯 At most %d MySQL statements per load and %d MongoDB checkout per listing%n",
+                    MYSQL_STATEMENTS_PER_LOAD, MONGO_CHECKOUTS_PER_LISTING);
+        } finally {
+            MySQLDataStoreUtilities.shutdown();
+            MongoDBDataStoreUtilities.shutdown();
+        }
+    }
+
+    private static Result measure(String category, boolean uncached) throws SQLException {
+        long mysqlBefore = mysqlStatements();
+        long mongoBefore = mongoCheckouts();
+        long start = System.nanoTime();
+        int products = 0;
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            products = (uncached ? listUncached(category) : ProductCatalog.listProducts(category)).size();
+        }
+        long elapsed = System.nanoTime() - start;
+        return new Result(category != null ? category : "(all products)", uncached, products,
+                mysqlStatements() - mysqlBefore,
+                mongoCheckouts() - mongoBefore,
+                elapsed / 1e6 / MEASURED_ITERATIONS);
+    }
+
+    private static List<Map<String, Object>> listUncached(String category) throws SQLException {
+        ProductCatalog.invalidate();
+        return ProductCatalog.listProducts(category);
+    }
+
+    private static long mysqlStatements() {
+        long statements = 0;
+        for (Map<String, Object> shape : QueryStats.getStats()) {
+            statements += ((Number) shape.get("count")).longValue();
+        }
+        return statements;
+    }
+
+    // The sync driver checks a pooled connection out once per command it sends.
+    private static long mongoCheckouts() {
+        Object checkouts = MongoDBDataStoreUtilities.getPoolStats().get("checkOutCount");
+        return checkouts instanceof Number ? ((Number) checkouts).longValue() : 0;
+    }
+
+    private static class Result {
+        final String listing;
+        final boolean uncached;
+        final int products;
+        final long mysqlRoundTrips;
+        final long mongoRoundTrips;
+        final double millis;
+
+        Result(String listing, boolean uncached, int products, long mysqlRoundTrips, long mongoRoundTrips, double millis) {
+            this.listing = listing;
+            this.uncached = uncached;
+            this.products = products;
+            this.mysqlRoundTrips = mysqlRoundTrips;
+            this.mongoRoundTrips = mongoRoundTrips;
+            this.millis = millis;
+        }
+
+        void print(boolean ok) {
+            System.out.printf("%s %-25s %-8s %5d products %5.2f MySQL %5.2f MongoDB %8.2f ms%n",
+                    ok ? "✅" : "❌", listing, uncached ? "uncached" : "cached", products,
+                    mysqlRoundTrips / (double) MEASURED_ITERATIONS, mongoRoundTrips / (double) MEASURED_ITERATIONS, millis);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package tests;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import utilities.AjaxUtility;
+import utilities.CatalogXmlWriter;
+
+// Writes products with NULL columns through CatalogXmlWriter and reads the file back with the
+// startup import, which must keep every product. Needs no server or database.
+public class CatalogXmlRoundTripTests {
+    private static int totalTests = 0;
+    private static int passedTests = 0;
+
+    public static void main(String[] args) throws Exception {
+        File directory = Files.createTempDirectory("catalog").toFile();
+        File catalog = new File(directory, "ProductCatalog.xml");
+
+        CatalogXmlWriter.start(catalog.getPath());
+        CatalogXmlWriter.append(product(1, "Priced", "10.50", 3));
+        CatalogXmlWriter.append(product(2, "Unpriced", null, null));
+        CatalogXmlWriter.append(product(3, "Stocked", "20", 7));
+        CatalogXmlWriter.update(3, product(3, "Stocked", "20", 7), product(3, "Stocked", null, null));
+        CatalogXmlWriter.update(2, product(2, "Unpriced", null, null), product(2, "Unpriced", "5", null));
+        CatalogXmlWriter.shutdown();
+
+        String xml = new String(Files.readAllBytes(catalog.toPath()), StandardCharsets.UTF_8);
+        check("No empty price or inventory elements", !xml.contains("<ProductPrice/>") && !xml.contains("<Inventory/>"));
+
+        Map<String, AjaxUtility.Product> products = AjaxUtility.readProductsFromXML(catalog);
+        check("Every product imported", products.keySet().containsAll(java.util.Arrays.asList("Priced", "Unpriced", "Stocked")));
+        check("Price kept", products.containsKey("Priced") && products.get("Priced").getProductPrice() == 10.5);
+        check("Appended NULL inventory reads as 0", products.containsKey("Unpriced") && products.get("Unpriced").getInventory() == 0);
+        check("Price set after NULL", products.containsKey("Unpriced") && products.get("Unpriced").getProductPrice() == 5);
+        check("Price updated to NULL reads as 0", products.containsKey("Stocked") && products.get("Stocked").getProductPrice() == 0);
+
+        catalog.delete();
+        directory.delete();
+
+        System.out.println("🧪 Total Tests: " + totalTests);
+        System.out.println("✅ Passed: " + passedTests);
+        System.out.println("❌ Failed: " + (totalTests - passedTests));
+        if (passedTests < totalTests) {
+            System.exit(1);
+        }
+    }
+
+    private static Map<String, Object> product(int productId, String name, String price, Integer inventory) {
+        Map<String, Object> product = new HashMap<>();
+        product.put("ProductID", productId);
+        product.put("ProductModelName", name);
+        product.put("ProductCategory", "Smart Speakers");
+        product.put("ProductPrice", price != null ? new java.math.BigDecimal(price) : null);
+        product.put("ProductOnSale", false);
+        product.put("ManufacturerName", "Test");
+        product.put("ManufacturerRebate", false);
+        product.put("Inventory", inventory);
+        product.put("ProductImage", null);
+        product.put("ProductDescription", null);
+        return product;
+    }
+
+    private static void check(String testName, boolean passed) {
+        totalTests += 1;
+        if (passed) {
+            passedTests += 1;
+            System.out.println("✅ " + testName);
+        } else {
+            System.out.println("❌ " + testName);
+        }
+    }
+}
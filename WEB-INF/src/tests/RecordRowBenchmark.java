@@ -0,0 +1,129 @@
+package tests;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.*;
+import utilities.RecordRow;
+
+// Compares building and reading Transactions-shaped rows as HashMaps (the old getRecords
+// representation) against RecordRow. Run with the compiled classes on the classpath:
+//   java -cp "$COMPILED_CLASS_DIR" tests.RecordRowBenchmark
+public class RecordRowBenchmark {
+    private static final String[] TRANSACTION_COLUMNS = {
+        "TransactionID", "CustomerID", "CustomerName", "StoreID", "ProductID", "OrderID",
+        "PurchaseDate", "ShipDate", "Quantity", "Price", "ShippingCost", "Discount", "TotalSales",
+        "ShippingAddressStreet", "ShippingAddressCity", "ShippingAddressState", "ShippingAddressZipCode",
+        "StoreAddressStreet", "StoreAddressCity", "StoreAddressState", "StoreAddressZipCode",
+        "CreditCardNumber", "Category", "OrderStatus"
+    };
+    private static final int ROWS_PER_ITERATION = 10_000;
+    private static final int WARMUP_ITERATIONS = 20;
+    private static final int MEASURED_ITERATIONS = 50;
+
+    private static long blackhole;
+
+    public static void main(String[] args) {
+        Object[] cells = sampleCells();
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            hashMapRows(cells);
+            recordRows(cells);
+        }
+
+        Result hashMap = measure("HashMap rows", () -> hashMapRows(cells));
+        Result recordRow = measure("RecordRow rows", () -> recordRows(cells));
+
+        System.out.println("🧪 " + TRANSACTION_COLUMNS.length + " columns, " + ROWS_PER_ITERATION + " rows per iteration");
+        hashMap.print();
+        recordRow.print();
+        System.out.printf("🎯 RecordRow allocates %.1f%% of the HashMap bytes per row at %.2fx the throughput%n",
+                100.0 * recordRow.bytesPerRow / hashMap.bytesPerRow, recordRow.rowsPerSecond / hashMap.rowsPerSecond);
+        if (blackhole == 42) {
+            System.out.println();
+        }
+    }
+
+    // Mirrors the old getRecords loop: a fresh HashMap and a metadata name lookup per cell.
+    private static void hashMapRows(Object[] cells) {
+        List<Map<String, Object>> rows = new ArrayList<>(ROWS_PER_ITERATION);
+        for (int r = 0; r < ROWS_PER_ITERATION; r++) {
+            Map<String, Object> row = new HashMap<>();
+            for (int i = 0; i < TRANSACTION_COLUMNS.length; i++) {
+                row.put(columnName(i), cells[i]);
+            }
+            rows.add(row);
+        }
+        consume(rows);
+    }
+
+    private static void recordRows(Object[] cells) {
+        RecordRow.Schema schema = new RecordRow.Schema(TRANSACTION_COLUMNS);
+        List<Map<String, Object>> rows = new ArrayList<>(ROWS_PER_ITERATION);
+        for (int r = 0; r < ROWS_PER_ITERATION; r++) {
+            Object[] values = new Object[TRANSACTION_COLUMNS.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = cells[i];
+            }
+            rows.add(new RecordRow(schema, values));
+        }
+        consume(rows);
+    }
+
+    // Stands in for ResultSetMetaData.getColumnName, which returns the same String for a column
+    // on every call, so the baseline is not charged for key allocations the old loop never made.
+    private static String columnName(int index) {
+        return TRANSACTION_COLUMNS[index];
+    }
+
+    private static void consume(List<Map<String, Object>> rows) {
+        for (Map<String, Object> row : rows) {
+            blackhole += row.get("ProductID").hashCode() + row.get("ShippingAddressZipCode").hashCode();
+            for (Map.Entry<String, Object> entry : row.entrySet()) {
+                blackhole += entry.getKey().length();
+            }
+        }
+    }
+
+    private static Result measure(String name, Runnable iteration) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        long bytesBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            iteration.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        long bytes = threads.getThreadAllocatedBytes(threadId) - bytesBefore;
+
+        long rows = (long) ROWS_PER_ITERATION * MEASURED_ITERATIONS;
+        return new Result(name, rows * 1e9 / elapsed, (double) bytes / rows);
+    }
+
+    private static Object[] sampleCells() {
+        return new Object[] {
+            1, 7, "Jane Doe", 3, 12, UUID.randomUUID().toString(),
+            LocalDateTime.now(), null, 2, new BigDecimal("249.99"), new BigDecimal("9.99"), new BigDecimal("0.00"), new BigDecimal("509.97"),
+            "10 W 35th St", "Chicago", "IL", "60616",
+            "3241 S Wabash Ave", "Chicago", "IL", "60616",
+            "4111111111111111", "Smart Doorbells", "Pending"
+        };
+    }
+
+    private static class Result {
+        final String name;
+        final double rowsPerSecond;
+        final double bytesPerRow;
+
+        Result(String name, double rowsPerSecond, double bytesPerRow) {
+            this.name = name;
+            this.rowsPerSecond = rowsPerSecond;
+            this.bytesPerRow = bytesPerRow;
+        }
+
+        void print() {
+            System.out.printf("✅ %-15s %,14.0f rows/s %,10.1f bytes/row%n", name, rowsPerSecond, bytesPerRow);
+        }
+    }
+}
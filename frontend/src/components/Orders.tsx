@@ -107,9 +107,8 @@ export default function OrdersView({ products }: { products: Product[] }) {
         setIsLoading(true)
         try {
             const response = await fetch('http://localhost:8080/SmartHomes/api/transactions')
-            const reviewResponse = await fetch('http://localhost:8080/SmartHomes/api/productReviews')
             const data = await response.json()
-            const { productReviews: allReviews } = await reviewResponse.json()
+            const allReviews = await fetchUserReviews()
             const userReviews = allReviews.filter((review: Review) => +review.userID === +user.CustomerID)
             if (data) {
                 const userOrders = data
@@ -144,6 +143,20 @@ export default function OrdersView({ products }: { products: Product[] }) {
         }
     }
 
+    // Reviews are served in pages; follow nextCursor until the last one
+    const fetchUserReviews = async () => {
+        let reviews: Review[] = []
+        let cursor: string | null = null
+        do {
+            const cursorParam: string = cursor ? `&cursor=${cursor}` : ''
+            const reviewResponse = await fetch(`http://localhost:8080/SmartHomes/api/productReviews?userID=${user.CustomerID}&limit=500${cursorParam}`)
+            const page = await reviewResponse.json()
+            reviews = reviews.concat(page.productReviews)
+            cursor = page.nextCursor
+        } while (cursor)
+        return reviews
+    }
+
     const cancelOrder = async (orderId: string) => {
         try {
             const response = await fetch('http://localhost:8080/SmartHomes/cancelOrder', {